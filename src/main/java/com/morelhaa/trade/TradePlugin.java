@@ -3,8 +3,15 @@ package com.morelhaa.trade;
 import cn.nukkit.plugin.PluginBase;
 import cn.nukkit.utils.Config;
 import com.morelhaa.trade.commands.TradeCommand;
+import com.morelhaa.trade.config.MessageCatalog;
+import com.morelhaa.trade.config.TradeSettings;
+import com.morelhaa.trade.history.TradeHistory;
+import com.morelhaa.trade.journal.TradeJournal;
 import com.morelhaa.trade.listeners.TradeListener;
+import com.morelhaa.trade.mailbox.OverflowMailbox;
+import com.morelhaa.trade.manager.PermissionCache;
 import com.morelhaa.trade.manager.TradeManager;
+import com.morelhaa.trade.scheduler.TimingWheel;
 import com.morelhaa.trade.utils.ItemBlacklist;
 
 import java.io.File;
@@ -14,7 +21,14 @@ public class TradePlugin extends PluginBase {
     private static TradePlugin instance;
     private TradeManager tradeManager;
     private ItemBlacklist itemBlacklist;
+    private PermissionCache permissionCache;
+    private OverflowMailbox mailbox;
+    private TradeJournal journal;
+    private TradeHistory history;
+    private TimingWheel timingWheel;
     private Config config;
+    private volatile MessageCatalog messages;
+    private volatile TradeSettings settings;
 
     @Override
     public void onEnable() {
@@ -22,9 +36,25 @@ public class TradePlugin extends PluginBase {
 
         loadConfiguration();
 
+        // Única tarea repetida del plugin: todas las esperas cortas van por la rueda
+        timingWheel = new TimingWheel(getLogger());
+        getServer().getScheduler().scheduleRepeatingTask(this, timingWheel, 1);
+
         itemBlacklist = new ItemBlacklist(this);
         itemBlacklist.loadBlacklist();
 
+        permissionCache = new PermissionCache(this);
+
+        mailbox = new OverflowMailbox(this);
+        mailbox.load();
+
+        // Recupera trades que se quedaron a medias (usa el buzón)
+        journal = new TradeJournal(this);
+        journal.open();
+
+        history = new TradeHistory(this);
+        history.start();
+
         tradeManager = new TradeManager(this);
 
         this.getServer().getCommandMap().register("trade", new TradeCommand(this));
@@ -38,12 +68,31 @@ public class TradePlugin extends PluginBase {
 
     @Override
     public void onDisable() {
+        if (mailbox != null) {
+            // Los items devueltos durante el apagado se escriben ya
+            mailbox.shutdown();
+        }
+
         if (tradeManager != null) {
             // Cancelar todos los trades activos
             tradeManager.cancelAllTrades();
             getLogger().info("§eTodos los trades activos han sido cancelados.");
         }
 
+        if (journal != null) {
+            journal.close();
+        }
+
+        if (history != null) {
+            // Escribir lo que quede en la cola del historial
+            history.shutdown();
+        }
+
+        if (itemBlacklist != null) {
+            // Guardar cambios de la blacklist que sigan pendientes
+            itemBlacklist.flush();
+        }
+
         getLogger().info("§c  TradePlugin desactivado correctamente");
     }
 
@@ -59,47 +108,54 @@ public class TradePlugin extends PluginBase {
 
         // Cargar configuración
         config = new Config(configFile, Config.YAML);
+        messages = MessageCatalog.load(config);
+        settings = TradeSettings.load(config, getLogger());
 
         getLogger().info("§aConfiguración cargada correctamente.");
     }
 
     public void reloadConfiguration() {
         config.reload();
+        messages = MessageCatalog.load(config);
+        settings = TradeSettings.load(config, getLogger());
         itemBlacklist.loadBlacklist();
+        // Los perfiles de blacklist pueden haber cambiado
+        permissionCache.invalidateAll();
+        tradeManager.scheduleDistanceSweeper();
         getLogger().info("§aConfiguración recargada.");
     }
 
     public String getMessage(String key) {
-        String prefix = config.getString("messages.prefix", "§8[§6Trade§8]§r");
-        String message = config.getString("messages." + key, "§cMensaje no encontrado: " + key);
-        return prefix + " " + message;
+        return messages.format(key);
     }
 
     public String getMessage(String key, String placeholder, String value) {
-        String message = getMessage(key);
-        return message.replace(placeholder, value);
+        return messages.format(key, placeholder, value);
     }
 
+    public TradeSettings getSettings() {
+        return settings;
+    }
     public boolean areSoundsEnabled() {
-        return config.getBoolean("sounds-enabled", true);
+        return settings.soundsEnabled();
     }
     public int getRequestTimeout() {
-        return config.getInt("request-timeout", 30);
+        return settings.requestTimeout();
     }
     public double getMaxTradeDistance() {
-        return config.getDouble("advanced.max-distance", 15.0);
+        return settings.maxTradeDistance();
     }
     public boolean shouldCheckDistance() {
-        return config.getBoolean("advanced.check-distance", true);
+        return settings.checkDistance();
     }
     public boolean shouldCancelOnDistance() {
-        return config.getBoolean("advanced.cancel-on-distance", true);
+        return settings.cancelOnDistance();
     }
     public int getCompletionDelay() {
-        return config.getInt("advanced.completion-delay", 40);
+        return settings.completionDelay();
     }
     public int getReadyButtonSlot() {
-        return config.getInt("gui.ready-button-slot", 49);
+        return settings.readyButtonSlot();
     }
     public static TradePlugin getInstance() {
         return instance;
@@ -110,6 +166,21 @@ public class TradePlugin extends PluginBase {
     public ItemBlacklist getItemBlacklist() {
         return itemBlacklist;
     }
+    public PermissionCache getPermissionCache() {
+        return permissionCache;
+    }
+    public OverflowMailbox getMailbox() {
+        return mailbox;
+    }
+    public TradeJournal getJournal() {
+        return journal;
+    }
+    public TradeHistory getHistory() {
+        return history;
+    }
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
     @Override
     public Config getConfig() {
         return config;
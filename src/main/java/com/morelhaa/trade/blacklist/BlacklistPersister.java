@@ -0,0 +1,131 @@
+package com.morelhaa.trade.blacklist;
+
+import com.morelhaa.trade.TradePlugin;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Guardado diferido de blacklist.yml
+ * Los cambios solo marcan la blacklist como sucia; el fichero se escribe
+ * fuera del hilo principal como mucho una vez por intervalo
+ */
+public class BlacklistPersister {
+
+    private static final String HEADER =
+            "# Items que NO pueden ser intercambiados\n" +
+            "# Formato: ID:META (usa 0 para cualquier meta)\n";
+
+    private final TradePlugin plugin;
+    private final File file;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicReference<Map<String, Object>> pending = new AtomicReference<>();
+
+    public BlacklistPersister(TradePlugin plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+    }
+
+    /**
+     * Registra el estado a guardar y programa un guardado si no hay uno pendiente
+     * @param enabled Si la blacklist está activa
+     * @param items Entradas en formato "ID:META"
+     * @param extra Otras secciones del fichero que se conservan tal cual
+     */
+    public void markDirty(boolean enabled, Collection<String> items, Map<String, Object> extra) {
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("enabled", enabled);
+        root.put("items", List.copyOf(items));
+        if (extra != null) {
+            for (Map.Entry<String, Object> entry : extra.entrySet()) {
+                root.put(entry.getKey(), toPlain(entry.getValue()));
+            }
+        }
+        pending.set(root);
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            int interval = plugin.getSettings().blacklistSaveInterval();
+            plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> {
+                flushScheduled.set(false);
+                flush();
+            }, interval, true);
+        }
+    }
+
+    /**
+     * Escribe el último estado pendiente, si lo hay
+     * Se puede llamar desde cualquier hilo (onDisable lo llama de forma síncrona)
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            Map<String, Object> root = pending.getAndSet(null);
+            if (root == null) {
+                return;
+            }
+
+            try {
+                write(root);
+            } catch (IOException e) {
+                plugin.getLogger().error("Error guardando " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isDirty() {
+        return pending.get() != null;
+    }
+
+    /**
+     * Copia mapas y listas a tipos básicos para que SnakeYAML no escriba
+     * etiquetas de clase (ConfigSection extiende LinkedHashMap)
+     */
+    private static Object toPlain(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(String.valueOf(entry.getKey()), toPlain(entry.getValue()));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                copy.add(toPlain(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private void write(Map<String, Object> root) throws IOException {
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        options.setPrettyFlow(true);
+        String content = HEADER + new Yaml(options).dump(root);
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.item.Item;
+import cn.nukkit.plugin.PluginLogger;
+import cn.nukkit.utils.ConfigSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Perfil de blacklist por grupo: items de la blacklist que sus miembros sí pueden intercambiar
+ * Se asigna con el permiso trade.blacklist.profile.<nombre>
+ */
+public final class BlacklistProfile {
+
+    public static final String PERMISSION_PREFIX = "trade.blacklist.profile.";
+
+    private final String name;
+    private final String permission;
+    private final ItemIdIndex allowed;
+
+    private BlacklistProfile(String name, ItemIdIndex allowed) {
+        this.name = name;
+        this.permission = PERMISSION_PREFIX + name;
+        this.allowed = allowed;
+    }
+
+    /**
+     * Compila la sección "profiles" de blacklist.yml
+     * @param section Sección de perfiles (puede ser null)
+     * @param logger Logger para avisar de entradas inválidas
+     * @return Perfiles en el orden de la config
+     */
+    public static List<BlacklistProfile> compile(ConfigSection section, PluginLogger logger) {
+        if (section == null || section.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<BlacklistProfile> profiles = new ArrayList<>();
+        for (String name : section.getKeys(false)) {
+            ItemIdIndex allowed = new ItemIdIndex();
+            List<String> entries = section.getStringList(name + ".allow");
+            if (entries != null) {
+                for (String entry : entries) {
+                    try {
+                        allowed.add(ItemIdIndex.parse(entry));
+                    } catch (NumberFormatException | NullPointerException e) {
+                        logger.warning("§cEntrada inválida en el perfil " + name + ": " + entry);
+                    }
+                }
+            }
+            profiles.add(new BlacklistProfile(name, allowed));
+        }
+
+        return Collections.unmodifiableList(profiles);
+    }
+
+    public boolean allows(Item item) {
+        return allowed.contains(item);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPermission() {
+        return permission;
+    }
+}
@@ -0,0 +1,49 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.item.Item;
+
+/**
+ * Regla compilada de blacklist: todas sus condiciones deben cumplirse
+ * El meta se comprueba antes que cualquier condición que lea NBT
+ */
+final class BlacklistRule {
+
+    // Sin id o meta concretos; -1 y otros ids negativos son bloques válidos
+    static final int ANY = Integer.MIN_VALUE;
+
+    private final int id;
+    private final int meta;
+    private final ItemCondition[] conditions;
+
+    BlacklistRule(int id, int meta, ItemCondition[] conditions) {
+        this.id = id;
+        this.meta = meta;
+        this.conditions = conditions;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    boolean needsNbt() {
+        return conditions.length > 0;
+    }
+
+    /**
+     * @param item Item a comprobar
+     * @param view Vista NBT compartida entre reglas (se parsea solo si hace falta)
+     * @return true si la regla prohíbe el item
+     */
+    boolean matches(Item item, ItemView view) {
+        if (meta != ANY && item.getDamage() != meta) {
+            return false;
+        }
+
+        for (ItemCondition condition : conditions) {
+            if (!condition.matches(view)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
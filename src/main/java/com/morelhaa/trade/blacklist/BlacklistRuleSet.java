@@ -0,0 +1,223 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.item.Item;
+import cn.nukkit.plugin.PluginLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Reglas avanzadas de blacklist (nombre, lore, encantamientos, tags NBT)
+ * compiladas al cargar y agrupadas por ID para descartar rápido los items sin reglas
+ */
+public final class BlacklistRuleSet {
+
+    public static final BlacklistRuleSet EMPTY = new BlacklistRuleSet(new BlacklistRule[0][], new HashMap<>(), new BlacklistRule[0], 0);
+
+    // Los IDs de 0 a DENSE_LIMIT - 1 van en un array; el resto (negativos o enormes) en un mapa
+    private static final int DENSE_LIMIT = 4096;
+
+    // Reglas por ID (0 <= id < DENSE_LIMIT); null si el ID no tiene reglas
+    private final BlacklistRule[][] byId;
+    private final Map<Integer, BlacklistRule[]> sparseId;
+    // Reglas sin ID: se evalúan para cualquier item
+    private final BlacklistRule[] anyId;
+    private final int size;
+
+    private BlacklistRuleSet(BlacklistRule[][] byId, Map<Integer, BlacklistRule[]> sparseId,
+                             BlacklistRule[] anyId, int size) {
+        this.byId = byId;
+        this.sparseId = sparseId;
+        this.anyId = anyId;
+        this.size = size;
+    }
+
+    /**
+     * Compila la lista "rules" de blacklist.yml
+     * @param rules Lista de mapas tal como la devuelve la config
+     * @param logger Logger para avisar de reglas inválidas
+     * @return Conjunto de reglas compilado
+     */
+    public static BlacklistRuleSet compile(List<?> rules, PluginLogger logger) {
+        if (rules == null || rules.isEmpty()) {
+            return EMPTY;
+        }
+
+        List<BlacklistRule> compiled = new ArrayList<>();
+        for (Object raw : rules) {
+            if (!(raw instanceof Map)) {
+                logger.warning("§cRegla de blacklist inválida: " + raw);
+                continue;
+            }
+
+            try {
+                compiled.add(compileRule((Map<?, ?>) raw));
+            } catch (IllegalArgumentException e) {
+                logger.warning("§cRegla de blacklist inválida (" + e.getMessage() + "): " + raw);
+            }
+        }
+
+        // Un ID mal escrito (p. ej. 2000000000) no puede reservar un array enorme
+        int maxId = -1;
+        for (BlacklistRule rule : compiled) {
+            if (rule.getId() < DENSE_LIMIT) {
+                maxId = Math.max(maxId, rule.getId());
+            }
+        }
+
+        Map<Integer, List<BlacklistRule>> grouped = new HashMap<>();
+        List<BlacklistRule> anyId = new ArrayList<>();
+        for (BlacklistRule rule : compiled) {
+            if (rule.getId() == BlacklistRule.ANY) {
+                anyId.add(rule);
+            } else {
+                grouped.computeIfAbsent(rule.getId(), id -> new ArrayList<>()).add(rule);
+            }
+        }
+
+        BlacklistRule[][] byId = new BlacklistRule[maxId + 1][];
+        Map<Integer, BlacklistRule[]> sparseId = new HashMap<>();
+        for (Map.Entry<Integer, List<BlacklistRule>> entry : grouped.entrySet()) {
+            BlacklistRule[] array = sortByCost(entry.getValue());
+            if (entry.getKey() >= 0 && entry.getKey() < DENSE_LIMIT) {
+                byId[entry.getKey()] = array;
+            } else {
+                sparseId.put(entry.getKey(), array);
+            }
+        }
+
+        return new BlacklistRuleSet(byId, sparseId, sortByCost(anyId), compiled.size());
+    }
+
+    /**
+     * Las reglas que no leen NBT van primero
+     */
+    private static BlacklistRule[] sortByCost(List<BlacklistRule> rules) {
+        rules.sort((a, b) -> Boolean.compare(a.needsNbt(), b.needsNbt()));
+        return rules.toArray(new BlacklistRule[0]);
+    }
+
+    private static BlacklistRule compileRule(Map<?, ?> raw) {
+        int id = BlacklistRule.ANY;
+        int meta = BlacklistRule.ANY;
+        List<ItemCondition> conditions = new ArrayList<>();
+
+        // Orden de coste: presencia de tag < encantamiento < nombre < lore
+        Object tag = raw.get("nbt-tag");
+        if (tag != null) {
+            conditions.add(ItemCondition.hasTag(String.valueOf(tag)));
+        }
+
+        Object enchantment = raw.get("enchantment");
+        if (enchantment != null) {
+            String[] parts = String.valueOf(enchantment).split(":");
+            int enchantId = parseInt(parts[0], "enchantment");
+            int minLevel = parts.length > 1 ? parseInt(parts[1], "enchantment") : 1;
+            conditions.add(ItemCondition.enchantmentAtLeast(enchantId, minLevel));
+        }
+
+        Object name = raw.get("name");
+        if (name != null) {
+            try {
+                conditions.add(ItemCondition.nameMatches(Pattern.compile(String.valueOf(name))));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("name no es una expresión regular válida");
+            }
+        }
+
+        Object lore = raw.get("lore");
+        if (lore != null) {
+            conditions.add(ItemCondition.loreContains(String.valueOf(lore)));
+        }
+
+        if (raw.get("id") != null) {
+            id = parseInt(raw.get("id"), "id");
+            if (id == 0) {
+                throw new IllegalArgumentException("id 0 es aire");
+            }
+            if (id == BlacklistRule.ANY) {
+                throw new IllegalArgumentException("id fuera de rango");
+            }
+        }
+        if (raw.get("meta") != null) {
+            meta = parseInt(raw.get("meta"), "meta");
+            if (meta == BlacklistRule.ANY) {
+                throw new IllegalArgumentException("meta fuera de rango");
+            }
+        }
+
+        if (id == BlacklistRule.ANY && conditions.isEmpty()) {
+            throw new IllegalArgumentException("la regla no tiene condiciones");
+        }
+
+        return new BlacklistRule(id, meta, conditions.toArray(new ItemCondition[0]));
+    }
+
+    private static int parseInt(Object value, String field) {
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " no es un número");
+        }
+    }
+
+    /**
+     * @param item Item no vacío
+     * @return true si alguna regla prohíbe el item
+     */
+    public boolean matches(Item item) {
+        if (size == 0) {
+            return false;
+        }
+
+        int id = item.getId();
+        BlacklistRule[] rules;
+        if (id >= 0 && id < DENSE_LIMIT) {
+            rules = id < byId.length ? byId[id] : null;
+        } else {
+            rules = sparseId.isEmpty() ? null : sparseId.get(id);
+        }
+
+        if (rules == null && anyId.length == 0) {
+            return false;
+        }
+
+        ItemView view = null;
+        if (rules != null) {
+            for (BlacklistRule rule : rules) {
+                if (rule.needsNbt() && view == null) {
+                    if (!item.hasCompoundTag()) {
+                        // Sin NBT ninguna de las reglas restantes puede cumplirse
+                        break;
+                    }
+                    view = new ItemView(item);
+                }
+                if (rule.matches(item, view)) {
+                    return true;
+                }
+            }
+        }
+
+        for (BlacklistRule rule : anyId) {
+            if (rule.needsNbt() && view == null) {
+                if (!item.hasCompoundTag()) {
+                    return false;
+                }
+                view = new ItemView(item);
+            }
+            if (rule.matches(item, view)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+}
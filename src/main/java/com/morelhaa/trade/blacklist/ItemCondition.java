@@ -0,0 +1,73 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.nbt.tag.ListTag;
+import cn.nukkit.nbt.tag.StringTag;
+
+import java.util.regex.Pattern;
+
+/**
+ * Condición de una regla que necesita leer el NBT del item
+ */
+interface ItemCondition {
+
+    boolean matches(ItemView view);
+
+    /**
+     * El nombre personalizado cumple la expresión regular
+     */
+    static ItemCondition nameMatches(Pattern pattern) {
+        return view -> {
+            String name = view.customName();
+            return name != null && pattern.matcher(name).matches();
+        };
+    }
+
+    /**
+     * Alguna línea del lore contiene el texto
+     */
+    static ItemCondition loreContains(String text) {
+        return view -> {
+            ListTag<StringTag> lore = view.lore();
+            if (lore == null) {
+                return false;
+            }
+            for (int i = 0; i < lore.size(); i++) {
+                StringTag line = lore.get(i);
+                if (line != null && line.data != null && line.data.contains(text)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Tiene el encantamiento con al menos el nivel indicado
+     */
+    static ItemCondition enchantmentAtLeast(int id, int minLevel) {
+        return view -> {
+            ListTag<CompoundTag> enchantments = view.enchantments();
+            if (enchantments == null) {
+                return false;
+            }
+            for (int i = 0; i < enchantments.size(); i++) {
+                CompoundTag enchantment = enchantments.get(i);
+                if (enchantment.getShort("id") == id && enchantment.getShort("lvl") >= minLevel) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * El NBT raíz contiene el tag
+     */
+    static ItemCondition hasTag(String name) {
+        return view -> {
+            CompoundTag tag = view.tag();
+            return tag != null && tag.contains(name);
+        };
+    }
+}
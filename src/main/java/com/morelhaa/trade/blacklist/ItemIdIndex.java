@@ -0,0 +1,85 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.item.Item;
+import com.morelhaa.trade.utils.LongHashSet;
+
+import java.util.BitSet;
+
+/**
+ * Índice de entradas "ID:META" sin objetos por consulta
+ * Meta 0 significa cualquier meta
+ */
+public final class ItemIdIndex {
+
+    // IDs (>= 0) con cualquier meta ("ID:0")
+    private final BitSet wildcardIds = new BitSet();
+    // Pares (id, meta) empaquetados; también IDs negativos con meta comodín
+    private final LongHashSet exactItems = new LongHashSet();
+
+    public static long pack(int id, int meta) {
+        return ((long) id << 32) | (meta & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Convierte "ID" o "ID:META" en un par empaquetado
+     * @param entry Texto de la entrada
+     * @return Par (id, meta) empaquetado
+     * @throws NumberFormatException si el formato no es válido
+     */
+    public static long parse(String entry) {
+        String formatted = entry.trim();
+        int separator = formatted.indexOf(':');
+
+        if (separator < 0) {
+            return pack(Integer.parseInt(formatted), 0);
+        }
+        int id = Integer.parseInt(formatted.substring(0, separator).trim());
+        int meta = Integer.parseInt(formatted.substring(separator + 1).trim());
+        return pack(id, meta);
+    }
+
+    /**
+     * @param key Par empaquetado
+     * @return Entrada en formato "ID:META"
+     */
+    public static String format(long key) {
+        return (int) (key >> 32) + ":" + (int) key;
+    }
+
+    public void add(long key) {
+        int id = (int) (key >> 32);
+        int meta = (int) key;
+        if (meta == 0 && id >= 0) {
+            wildcardIds.set(id);
+        } else {
+            exactItems.add(key);
+        }
+    }
+
+    public void remove(long key) {
+        int id = (int) (key >> 32);
+        int meta = (int) key;
+        if (meta == 0 && id >= 0) {
+            wildcardIds.clear(id);
+        } else {
+            exactItems.remove(key);
+        }
+    }
+
+    public boolean contains(Item item) {
+        int id = item.getId();
+        if (id >= 0 ? wildcardIds.get(id) : exactItems.contains(pack(id, 0))) {
+            return true;
+        }
+        return exactItems.contains(pack(id, item.getDamage()));
+    }
+
+    public boolean isEmpty() {
+        return wildcardIds.isEmpty() && exactItems.isEmpty();
+    }
+
+    public void clear() {
+        wildcardIds.clear();
+        exactItems.clear();
+    }
+}
@@ -0,0 +1,61 @@
+package com.morelhaa.trade.blacklist;
+
+import cn.nukkit.item.Item;
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.nbt.tag.ListTag;
+import cn.nukkit.nbt.tag.StringTag;
+
+/**
+ * Vista de un item que solo parsea su NBT la primera vez que alguna regla lo pide
+ */
+class ItemView {
+
+    private final Item item;
+    private CompoundTag tag;
+    private boolean parsed;
+
+    ItemView(Item item) {
+        this.item = item;
+    }
+
+    /**
+     * @return NBT raíz del item, o null si no tiene
+     */
+    CompoundTag tag() {
+        if (!parsed) {
+            parsed = true;
+            if (item.hasCompoundTag()) {
+                tag = item.getNamedTag();
+            }
+        }
+        return tag;
+    }
+
+    String customName() {
+        CompoundTag root = tag();
+        if (root == null || !root.contains("display")) {
+            return null;
+        }
+
+        CompoundTag display = root.getCompound("display");
+        return display.contains("Name") ? display.getString("Name") : null;
+    }
+
+    ListTag<StringTag> lore() {
+        CompoundTag root = tag();
+        if (root == null || !root.contains("display")) {
+            return null;
+        }
+
+        CompoundTag display = root.getCompound("display");
+        return display.contains("Lore") ? display.getList("Lore", StringTag.class) : null;
+    }
+
+    ListTag<CompoundTag> enchantments() {
+        CompoundTag root = tag();
+        if (root == null || !root.contains("ench")) {
+            return null;
+        }
+        return root.getList("ench", CompoundTag.class);
+    }
+}
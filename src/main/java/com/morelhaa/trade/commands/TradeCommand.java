@@ -1,44 +1,92 @@
 package com.morelhaa.trade.commands;
 
+import cn.nukkit.IPlayer;
 import cn.nukkit.Player;
 import cn.nukkit.command.Command;
 import cn.nukkit.command.CommandSender;
 import cn.nukkit.command.data.CommandParamType;
 import cn.nukkit.command.data.CommandParameter;
 import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.history.TradeHistory;
+import com.morelhaa.trade.history.TradeRecord;
+import com.morelhaa.trade.manager.PermissionCache;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
 
 public class TradeCommand extends Command {
 
+    private static final int HISTORY_PAGE_SIZE = 8;
+    private static final DateTimeFormatter HISTORY_DATE =
+            DateTimeFormatter.ofPattern("dd/MM/yy HH:mm").withZone(ZoneId.systemDefault());
+
     private final TradePlugin plugin;
 
     public TradeCommand(TradePlugin plugin) {
-        super("trade", "Enviar solicitud de intercambio a otro jugador", "/trade <jugador>", new String[]{"intercambio", "comercio"});
+        super("trade", "Enviar solicitud de intercambio a otro jugador", "/trade <jugador|buzon|solicitudes|historial>", new String[]{"intercambio", "comercio"});
         this.plugin = plugin;
         this.setPermission("trade.use");
         this.commandParameters.clear();
         this.commandParameters.put("default", new CommandParameter[]{
                 new CommandParameter("jugador", CommandParamType.TARGET, false)
         });
+        this.commandParameters.put("buzon", new CommandParameter[]{
+                new CommandParameter("buzon", false, new String[]{"buzon"})
+        });
+        this.commandParameters.put("solicitudes", new CommandParameter[]{
+                new CommandParameter("solicitudes", false, new String[]{"solicitudes"})
+        });
+        this.commandParameters.put("historial", new CommandParameter[]{
+                new CommandParameter("historial", false, new String[]{"historial"}),
+                new CommandParameter("jugador", CommandParamType.STRING, false),
+                new CommandParameter("pagina", CommandParamType.INT, true)
+        });
+        this.commandParameters.put("historial-item", new CommandParameter[]{
+                new CommandParameter("historial", false, new String[]{"historial"}),
+                new CommandParameter("item", false, new String[]{"item"}),
+                new CommandParameter("id", CommandParamType.INT, false),
+                new CommandParameter("pagina", CommandParamType.INT, true)
+        });
     }
 
     @Override
     public boolean execute(CommandSender sender, String label, String[] args) {
+        // El historial también se puede consultar desde consola
+        if (args.length > 0 && (args[0].equalsIgnoreCase("historial") || args[0].equalsIgnoreCase("history"))) {
+            return executeHistory(sender, args);
+        }
+
         if (!(sender instanceof Player)) {
             sender.sendMessage("§cEste comando solo puede ser ejecutado por jugadores.");
             return false;
         }
 
         Player player = (Player) sender;
-        if (!player.hasPermission("trade.use")) {
+        if (!plugin.getPermissionCache().get(player).canUse()) {
             player.sendMessage(plugin.getMessage("no-permission"));
             return false;
         }
 
         if (args.length == 0) {
-            player.sendMessage(plugin.getMessage("prefix") + " §eUso: §f/trade <jugador>");
+            player.sendMessage(plugin.getMessage("prefix") + " §eUso: §f/trade <jugador|buzon|solicitudes|historial>");
             return false;
         }
 
+        if (args[0].equalsIgnoreCase("buzon")) {
+            plugin.getMailbox().redeem(player, false);
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("solicitudes")) {
+            plugin.getTradeManager().openInbox(player);
+            return true;
+        }
+
         String targetName = args[0];
         Player target = plugin.getServer().getPlayer(targetName);
         if (target == null || !target.isOnline()) {
@@ -55,4 +103,122 @@ public class TradeCommand extends Command {
 
         return true;
     }
-}
\ No newline at end of file
+
+    private boolean executeHistory(CommandSender sender, String[] args) {
+        boolean admin = sender instanceof Player
+                ? plugin.getPermissionCache().get((Player) sender).isAdmin()
+                : sender.hasPermission(PermissionCache.ADMIN);
+        if (!admin) {
+            sender.sendMessage(plugin.getMessage("no-permission"));
+            return false;
+        }
+
+        TradeHistory history = plugin.getHistory();
+        if (!history.isEnabled()) {
+            sender.sendMessage(plugin.getMessage("history-disabled"));
+            return false;
+        }
+
+        boolean byItem = args.length > 1 && args[1].equalsIgnoreCase("item");
+        if (args.length < 2 || (byItem && args.length < 3)) {
+            sender.sendMessage(plugin.getMessage("prefix") + " §eUso: §f/trade historial <jugador> [página] §7o §f/trade historial item <id> [página]");
+            return false;
+        }
+
+        int pageArg = byItem ? 3 : 2;
+        int page = 1;
+        if (args.length > pageArg) {
+            try {
+                page = Math.max(1, Integer.parseInt(args[pageArg]));
+            } catch (NumberFormatException e) {
+                page = 1;
+            }
+        }
+
+        if (byItem) {
+            int itemId;
+            try {
+                itemId = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                sender.sendMessage(plugin.getMessage("prefix") + " §cId de item inválido: §f" + args[2]);
+                return false;
+            }
+            queryHistory(sender, "item " + itemId, page, () -> history.getStore().findByItem(itemId));
+            return true;
+        }
+
+        String name = args[1];
+        Player online = plugin.getServer().getPlayer(name);
+        IPlayer target = online != null ? online : plugin.getServer().getOfflinePlayer(name);
+        UUID uuid = target == null ? null : target.getUniqueId();
+        if (uuid == null) {
+            sender.sendMessage(plugin.getMessage("history-unknown-player", "{player}", name));
+            return false;
+        }
+
+        queryHistory(sender, target.getName(), page, () -> history.getStore().findByPlayer(uuid));
+        return true;
+    }
+
+    /**
+     * Ejecuta la consulta fuera del hilo principal y responde desde él
+     */
+    private void queryHistory(CommandSender sender, String title, int page, Supplier<List<TradeRecord>> query) {
+        plugin.getServer().getScheduler().scheduleTask(plugin, () -> {
+            List<TradeRecord> records = query.get();
+            List<String> lines = formatHistoryPage(title, records, page);
+
+            plugin.getServer().getScheduler().scheduleTask(plugin, () -> {
+                if (sender instanceof Player && !((Player) sender).isOnline()) {
+                    return;
+                }
+                for (String line : lines) {
+                    sender.sendMessage(line);
+                }
+            });
+        }, true);
+    }
+
+    private List<String> formatHistoryPage(String title, List<TradeRecord> records, int page) {
+        List<String> lines = new ArrayList<>();
+        if (records.isEmpty()) {
+            lines.add(plugin.getMessage("history-empty", "{player}", title));
+            return lines;
+        }
+
+        int pages = (records.size() + HISTORY_PAGE_SIZE - 1) / HISTORY_PAGE_SIZE;
+        page = Math.min(page, pages);
+
+        lines.add("§6=== Historial: §e" + title + " §6(página " + page + "/" + pages + ", " + records.size() + " trades) ===");
+
+        int from = (page - 1) * HISTORY_PAGE_SIZE;
+        int to = Math.min(records.size(), from + HISTORY_PAGE_SIZE);
+        for (TradeRecord record : records.subList(from, to)) {
+            StringBuilder line = new StringBuilder(96);
+            line.append("§7").append(HISTORY_DATE.format(Instant.ofEpochMilli(record.timestamp()))).append(' ')
+                    .append(record.completed() ? "§a✔ " : "§c✘ ")
+                    .append("§e").append(record.name1()).append(" §7(");
+            appendItems(line, record.items1());
+            line.append("§7) ⇄ §e").append(record.name2()).append(" §7(");
+            appendItems(line, record.items2());
+            line.append("§7)");
+            lines.add(line.toString());
+        }
+
+        return lines;
+    }
+
+    private static void appendItems(StringBuilder line, int[] items) {
+        if (items.length == 0) {
+            line.append("§8nada");
+            return;
+        }
+        line.append("§f");
+        for (int i = 0; i < items.length; i += 3) {
+            if (i > 0) {
+                line.append(", ");
+            }
+            line.append(items[i + 2]).append("x ").append(items[i]).append(':').append(items[i + 1]);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.morelhaa.trade.config;
+
+import cn.nukkit.utils.Config;
+import cn.nukkit.utils.ConfigSection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Todos los mensajes de la sección messages.* compilados al cargar la config
+ * Es inmutable: al recargar se construye uno nuevo y se reemplaza entero
+ */
+public final class MessageCatalog {
+
+    private static final String DEFAULT_PREFIX = "§8[§6Trade§8]§r";
+
+    private final String prefix;
+    private final Map<String, MessageTemplate> templates;
+
+    private MessageCatalog(String prefix, Map<String, MessageTemplate> templates) {
+        this.prefix = prefix;
+        this.templates = templates;
+    }
+
+    /**
+     * Construye el catálogo a partir de la configuración
+     * @param config Config del plugin
+     * @return Catálogo con todos los mensajes precompilados
+     */
+    public static MessageCatalog load(Config config) {
+        String prefix = config.getString("messages.prefix", DEFAULT_PREFIX);
+        Map<String, MessageTemplate> templates = new HashMap<>();
+
+        ConfigSection section = config.getSection("messages");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                Object value = section.get(key);
+                if (value != null && !(value instanceof Map)) {
+                    templates.put(key, MessageTemplate.compile(prefix, String.valueOf(value)));
+                }
+            }
+        }
+
+        return new MessageCatalog(prefix, Collections.unmodifiableMap(templates));
+    }
+
+    public String format(String key) {
+        MessageTemplate template = templates.get(key);
+        if (template == null) {
+            return missing(key);
+        }
+        return template.render();
+    }
+
+    public String format(String key, String placeholder, String value) {
+        MessageTemplate template = templates.get(key);
+        if (template == null) {
+            return missing(key).replace(placeholder, value);
+        }
+        return template.render(placeholder, value);
+    }
+
+    private String missing(String key) {
+        return prefix + " §cMensaje no encontrado: " + key;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int size() {
+        return templates.size();
+    }
+}
@@ -0,0 +1,103 @@
+package com.morelhaa.trade.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mensaje precompilado con el prefijo ya unido
+ * Los placeholders ({player}, etc.) se separan una sola vez al cargar
+ */
+public final class MessageTemplate {
+
+    private final String text;
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalLength;
+
+    private MessageTemplate(String text, String[] literals, String[] placeholders) {
+        this.text = text;
+        this.literals = literals;
+        this.placeholders = placeholders;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compila un mensaje separando los placeholders con formato {nombre}
+     * @param prefix Prefijo del plugin
+     * @param message Mensaje tal como está en la config
+     * @return Plantilla inmutable
+     */
+    public static MessageTemplate compile(String prefix, String message) {
+        String text = prefix + " " + message;
+
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+
+        int start = 0;
+        int open = text.indexOf('{');
+        while (open >= 0) {
+            int close = text.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+
+            literals.add(text.substring(start, open));
+            placeholders.add(text.substring(open, close + 1));
+            start = close + 1;
+            open = text.indexOf('{', start);
+        }
+        literals.add(text.substring(start));
+
+        return new MessageTemplate(text, literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /**
+     * @return Mensaje completo sin reemplazar placeholders
+     */
+    public String render() {
+        return text;
+    }
+
+    /**
+     * Rellena los huecos del placeholder indicado
+     * @param placeholder Placeholder a reemplazar (ej: {player})
+     * @param value Valor a insertar
+     * @return Mensaje final
+     */
+    public String render(String placeholder, String value) {
+        if (placeholders.length == 0) {
+            return text;
+        }
+
+        boolean found = false;
+        int capacity = literalLength;
+        for (String slot : placeholders) {
+            if (slot.equals(placeholder)) {
+                found = true;
+                capacity += value.length();
+            } else {
+                capacity += slot.length();
+            }
+        }
+
+        if (!found) {
+            // Placeholder sin formato {nombre}: mismo resultado que antes
+            return text.replace(placeholder, value);
+        }
+
+        StringBuilder builder = new StringBuilder(capacity);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+            String slot = placeholders[i];
+            builder.append(slot.equals(placeholder) ? value : slot);
+        }
+        builder.append(literals[placeholders.length]);
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.morelhaa.trade.config;
+
+import java.util.List;
+
+/**
+ * Tabla con el rol de cada slot de la GUI del trade, construida al cargar la config
+ * Clasificar un slot es una sola lectura de array
+ * El reparto es fijo de 4|1|4 columnas: la config solo elige qué slots de la
+ * columna del medio son separadores y dónde va el botón de listo
+ */
+public final class SlotLayout {
+
+    public static final byte NONE = 0;
+    public static final byte LEFT_OFFER = 1;
+    public static final byte RIGHT_OFFER = 2;
+    public static final byte SEPARATOR = 3;
+    public static final byte READY_BUTTON = 4;
+
+    // Columna que separa los dos lados
+    public static final int MIDDLE_COLUMN = 4;
+
+    private final byte[] roles;
+
+    private SlotLayout(byte[] roles) {
+        this.roles = roles;
+    }
+
+    /**
+     * Columnas 0-3 para el jugador 1, columnas 5-8 para el jugador 2;
+     * los separadores y el botón de listo tienen prioridad sobre ambas
+     * @param size Tamaño de la GUI
+     * @param separatorSlots Slots separadores configurados
+     * @param readyButtonSlot Slot del botón de listo
+     * @return Tabla de roles
+     */
+    public static SlotLayout build(int size, List<Integer> separatorSlots, int readyButtonSlot) {
+        byte[] roles = new byte[size];
+
+        for (int slot = 0; slot < size; slot++) {
+            int column = slot % 9;
+            if (column < MIDDLE_COLUMN) {
+                roles[slot] = LEFT_OFFER;
+            } else if (column > MIDDLE_COLUMN) {
+                roles[slot] = RIGHT_OFFER;
+            } else {
+                roles[slot] = NONE;
+            }
+        }
+
+        for (int slot : separatorSlots) {
+            roles[slot] = SEPARATOR;
+        }
+        roles[readyButtonSlot] = READY_BUTTON;
+
+        return new SlotLayout(roles);
+    }
+
+    /**
+     * @param slot Slot de la GUI
+     * @return true si el slot está en la columna del medio
+     */
+    public static boolean isMiddleColumn(int slot) {
+        return slot % 9 == MIDDLE_COLUMN;
+    }
+
+    /**
+     * @param slot Slot de la GUI
+     * @return Rol del slot (NONE si está fuera de rango)
+     */
+    public byte roleOf(int slot) {
+        return slot >= 0 && slot < roles.length ? roles[slot] : NONE;
+    }
+
+    /**
+     * @param isPlayer1 true para el jugador 1 (lado izquierdo)
+     * @return Rol de los slots de oferta de ese jugador
+     */
+    public static byte offerRoleOf(boolean isPlayer1) {
+        return isPlayer1 ? LEFT_OFFER : RIGHT_OFFER;
+    }
+}
@@ -0,0 +1,208 @@
+package com.morelhaa.trade.config;
+
+import cn.nukkit.plugin.PluginLogger;
+import cn.nukkit.utils.Config;
+import com.morelhaa.trade.form.RequestFormTemplate;
+import com.morelhaa.trade.inventory.TradeGuiTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copia inmutable y validada de config.yml
+ * Se construye una vez por carga y se publica entera, nunca a medias
+ */
+public record TradeSettings(
+        boolean soundsEnabled,
+        boolean soundsBroadcast,
+        int requestTimeout,
+        double maxTradeDistance,
+        boolean checkDistance,
+        boolean cancelOnDistance,
+        int completionDelay,
+        int readyButtonSlot,
+        List<Integer> separatorSlots,
+        SlotLayout slotLayout,
+        String separatorName,
+        TradeGuiTemplate guiTemplate,
+        RequestFormTemplate requestForm,
+        int blacklistSaveInterval,
+        int permissionCacheTtl,
+        boolean mailboxEnabled,
+        boolean mailboxRedeemOnJoin,
+        int distanceCheckInterval,
+        boolean historyEnabled,
+        int historyQueueSize,
+        long historySegmentBytes,
+        int historySegmentMinutes,
+        boolean historyCompress,
+        boolean rateLimitEnabled,
+        int rateLimitSenderBurst,
+        double rateLimitSenderPerMinute,
+        int rateLimitPairBurst,
+        double rateLimitPairPerMinute
+) {
+
+    public static final int GUI_SIZE = 54;
+
+    /**
+     * Lee y valida todos los valores de la configuración
+     * @param config Config del plugin
+     * @param logger Logger para avisar de valores inválidos
+     * @return Snapshot listo para publicar
+     */
+    public static TradeSettings load(Config config, PluginLogger logger) {
+        int requestTimeout = config.getInt("request-timeout", 30);
+        if (requestTimeout < 1) {
+            logger.warning("§crequest-timeout inválido (" + requestTimeout + "), usando 30.");
+            requestTimeout = 30;
+        }
+
+        double maxTradeDistance = config.getDouble("advanced.max-distance", 15.0);
+        if (maxTradeDistance <= 0) {
+            logger.warning("§cadvanced.max-distance inválido (" + maxTradeDistance + "), usando 15.");
+            maxTradeDistance = 15.0;
+        }
+
+        int completionDelay = config.getInt("advanced.completion-delay", 40);
+        if (completionDelay < 0) {
+            logger.warning("§cadvanced.completion-delay inválido (" + completionDelay + "), usando 40.");
+            completionDelay = 40;
+        }
+
+        int readyButtonSlot = config.getInt("gui.ready-button-slot", 49);
+        if (!isValidSlot(readyButtonSlot)) {
+            logger.warning("§cgui.ready-button-slot fuera de rango (" + readyButtonSlot + "), usando 49.");
+            readyButtonSlot = 49;
+        } else if (!SlotLayout.isMiddleColumn(readyButtonSlot)) {
+            logger.warning("§cgui.ready-button-slot debe estar en la columna del medio (" + readyButtonSlot + "), usando 49.");
+            readyButtonSlot = 49;
+        }
+
+        int blacklistSaveInterval = config.getInt("advanced.blacklist-save-interval", 100);
+        if (blacklistSaveInterval < 1) {
+            logger.warning("§cadvanced.blacklist-save-interval inválido (" + blacklistSaveInterval + "), usando 100.");
+            blacklistSaveInterval = 100;
+        }
+
+        int permissionCacheTtl = config.getInt("advanced.permission-cache-ttl", 30);
+        if (permissionCacheTtl < 1) {
+            logger.warning("§cadvanced.permission-cache-ttl inválido (" + permissionCacheTtl + "), usando 30.");
+            permissionCacheTtl = 30;
+        }
+
+        int distanceCheckInterval = config.getInt("advanced.distance-check-interval", 20);
+        if (distanceCheckInterval < 1) {
+            logger.warning("§cadvanced.distance-check-interval inválido (" + distanceCheckInterval + "), usando 20.");
+            distanceCheckInterval = 20;
+        }
+
+        int historyQueueSize = config.getInt("history.queue-size", 8192);
+        if (historyQueueSize < 16) {
+            logger.warning("§chistory.queue-size inválido (" + historyQueueSize + "), usando 8192.");
+            historyQueueSize = 8192;
+        }
+
+        int historySegmentSize = config.getInt("history.segment-size", 10240);
+        if (historySegmentSize < 1) {
+            logger.warning("§chistory.segment-size inválido (" + historySegmentSize + "), usando 10240.");
+            historySegmentSize = 10240;
+        }
+
+        int historySegmentMinutes = config.getInt("history.segment-minutes", 1440);
+        if (historySegmentMinutes < 1) {
+            logger.warning("§chistory.segment-minutes inválido (" + historySegmentMinutes + "), usando 1440.");
+            historySegmentMinutes = 1440;
+        }
+
+        int rateLimitSenderBurst = config.getInt("rate-limit.sender-burst", 5);
+        if (rateLimitSenderBurst < 1) {
+            logger.warning("§crate-limit.sender-burst inválido (" + rateLimitSenderBurst + "), usando 5.");
+            rateLimitSenderBurst = 5;
+        }
+
+        double rateLimitSenderPerMinute = config.getDouble("rate-limit.sender-per-minute", 6);
+        if (rateLimitSenderPerMinute <= 0) {
+            logger.warning("§crate-limit.sender-per-minute inválido (" + rateLimitSenderPerMinute + "), usando 6.");
+            rateLimitSenderPerMinute = 6;
+        }
+
+        int rateLimitPairBurst = config.getInt("rate-limit.pair-burst", 2);
+        if (rateLimitPairBurst < 1) {
+            logger.warning("§crate-limit.pair-burst inválido (" + rateLimitPairBurst + "), usando 2.");
+            rateLimitPairBurst = 2;
+        }
+
+        double rateLimitPairPerMinute = config.getDouble("rate-limit.pair-per-minute", 1);
+        if (rateLimitPairPerMinute <= 0) {
+            logger.warning("§crate-limit.pair-per-minute inválido (" + rateLimitPairPerMinute + "), usando 1.");
+            rateLimitPairPerMinute = 1;
+        }
+
+        List<Integer> separatorSlots = new ArrayList<>();
+        List<Integer> configured = config.getIntegerList("gui.separator-slots");
+        if (configured != null) {
+            for (Integer slot : configured) {
+                if (slot == null || !isValidSlot(slot)) {
+                    logger.warning("§cSlot separador inválido ignorado: " + slot);
+                    continue;
+                }
+                if (!SlotLayout.isMiddleColumn(slot)) {
+                    logger.warning("§cSlot separador fuera de la columna del medio ignorado: " + slot);
+                    continue;
+                }
+                if (!separatorSlots.contains(slot)) {
+                    separatorSlots.add(slot);
+                }
+            }
+        }
+
+        String separatorName = config.getString("messages.separator-name", "§7═══════════════");
+
+        return new TradeSettings(
+                config.getBoolean("sounds-enabled", true),
+                config.getBoolean("sounds-broadcast", false),
+                requestTimeout,
+                maxTradeDistance,
+                config.getBoolean("advanced.check-distance", true),
+                config.getBoolean("advanced.cancel-on-distance", true),
+                completionDelay,
+                readyButtonSlot,
+                Collections.unmodifiableList(separatorSlots),
+                SlotLayout.build(GUI_SIZE, separatorSlots, readyButtonSlot),
+                separatorName,
+                TradeGuiTemplate.build(separatorSlots, separatorName, readyButtonSlot),
+                RequestFormTemplate.build(
+                        config.getString("messages.request-form-title", "§6Solicitud de Trade"),
+                        config.getString("messages.request-form-content",
+                                "§e{player}§r te ha enviado una solicitud de intercambio.\n\n§7¿Deseas aceptar?"),
+                        config.getString("messages.request-form-accept", "§aAceptar"),
+                        config.getString("messages.request-form-reject", "§cRechazar")
+                ),
+                blacklistSaveInterval,
+                permissionCacheTtl,
+                config.getBoolean("mailbox.enabled", true),
+                config.getBoolean("mailbox.redeem-on-join", true),
+                distanceCheckInterval,
+                config.getBoolean("history.enabled", true),
+                historyQueueSize,
+                historySegmentSize * 1024L,
+                historySegmentMinutes,
+                config.getBoolean("history.compress", true),
+                config.getBoolean("rate-limit.enabled", true),
+                rateLimitSenderBurst,
+                rateLimitSenderPerMinute,
+                rateLimitPairBurst,
+                rateLimitPairPerMinute
+        );
+    }
+
+    public double maxTradeDistanceSquared() {
+        return maxTradeDistance * maxTradeDistance;
+    }
+
+    private static boolean isValidSlot(int slot) {
+        return slot >= 0 && slot < GUI_SIZE;
+    }
+}
@@ -0,0 +1,134 @@
+package com.morelhaa.trade.form;
+
+import cn.nukkit.form.element.ElementButton;
+import cn.nukkit.form.window.FormWindowSimple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Formulario de solicitud de trade serializado una vez por carga de config
+ * Cada solicitud solo intercala el nombre del remitente (escapado) entre los trozos del JSON
+ */
+public final class RequestFormTemplate {
+
+    public static final String PLAYER_PLACEHOLDER = "{player}";
+
+    private final String title;
+    private final List<ElementButton> buttons;
+    // JSON partido por cada aparición del nombre
+    private final String[] parts;
+    private final int partsLength;
+
+    private RequestFormTemplate(String title, List<ElementButton> buttons, String[] parts) {
+        this.title = title;
+        this.buttons = buttons;
+        this.parts = parts;
+        int length = 0;
+        for (String part : parts) {
+            length += part.length();
+        }
+        this.partsLength = length;
+    }
+
+    /**
+     * @param title Título del formulario
+     * @param content Texto; {player} se cambia por el remitente
+     * @param accept Texto del botón de aceptar (respuesta 0)
+     * @param reject Texto del botón de rechazar (respuesta 1)
+     * @return Plantilla inmutable
+     */
+    public static RequestFormTemplate build(String title, String content, String accept, String reject) {
+        List<ElementButton> buttons = Collections.unmodifiableList(Arrays.asList(
+                new ElementButton(accept),
+                new ElementButton(reject)
+        ));
+
+        // Lo serializa el propio Nukkit, así el formato es el mismo que el de cualquier otro formulario
+        String json = new FormWindowSimple(title, content, buttons).getJSONData();
+        return new RequestFormTemplate(title, buttons, split(json));
+    }
+
+    private static String[] split(String json) {
+        List<String> parts = new ArrayList<>();
+        int from = 0;
+        int at;
+        while ((at = json.indexOf(PLAYER_PLACEHOLDER, from)) >= 0) {
+            parts.add(json.substring(from, at));
+            from = at + PLAYER_PLACEHOLDER.length();
+        }
+        parts.add(json.substring(from));
+        return parts.toArray(new String[0]);
+    }
+
+    /**
+     * @param senderName Nombre del jugador que envía la solicitud
+     * @return Formulario listo para showFormWindow
+     */
+    public FormWindowSimple create(String senderName) {
+        return new RequestForm(title, buttons, render(senderName));
+    }
+
+    String render(String senderName) {
+        if (parts.length == 1) {
+            return parts[0];
+        }
+
+        String name = escape(senderName);
+        StringBuilder json = new StringBuilder(partsLength + name.length() * (parts.length - 1));
+        json.append(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            json.append(name).append(parts[i]);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Escapa un texto para ir dentro de una cadena JSON
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement = null;
+            if (c == '"' || c == '\\') {
+                replacement = "\\" + c;
+            } else if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '=' || c == '\''
+                    || c == '\u2028' || c == '\u2029') {
+                // Mismos caracteres que escapa Gson por defecto (incluidos los separadores de línea Unicode)
+                replacement = String.format("\\u%04x", (int) c);
+            }
+
+            if (replacement != null) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(text.length() + 8).append(text, 0, i);
+                }
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? text : escaped.toString();
+    }
+
+    /**
+     * Comparte los botones de la plantilla (solo se leen al procesar la respuesta)
+     * y devuelve el JSON ya montado en lugar de serializarse
+     */
+    private static final class RequestForm extends FormWindowSimple {
+
+        private final String json;
+
+        private RequestForm(String title, List<ElementButton> buttons, String json) {
+            super(title, "", buttons);
+            this.json = json;
+        }
+
+        @Override
+        public String getJSONData() {
+            return json;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.morelhaa.trade.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Índice de un segmento del historial (trades-<inicio>.idx junto al .log)
+ * Para cada jugador y cada id de item guarda las posiciones de sus registros dentro del segmento
+ * (sin comprimir), así una consulta solo lee las líneas que le interesan
+ */
+public final class HistoryIndex {
+
+    private static final int MAGIC = 0x54484931;
+    private static final long[] NONE = new long[0];
+
+    private final Map<UUID, long[]> players;
+    private final Map<Integer, long[]> items;
+    private final Map<UUID, Integer> playerSizes;
+    private final Map<Integer, Integer> itemSizes;
+
+    public HistoryIndex() {
+        this(new HashMap<>(), new HashMap<>());
+    }
+
+    private HistoryIndex(Map<UUID, long[]> players, Map<Integer, long[]> items) {
+        this.players = players;
+        this.items = items;
+        this.playerSizes = new HashMap<>();
+        this.itemSizes = new HashMap<>();
+    }
+
+    /**
+     * Añade un registro al índice (solo el hilo escritor)
+     * @param record Registro escrito
+     * @param offset Posición de su línea en el segmento
+     */
+    public void add(TradeRecord record, long offset) {
+        addPosting(players, playerSizes, record.player1(), offset);
+        if (!record.player2().equals(record.player1())) {
+            addPosting(players, playerSizes, record.player2(), offset);
+        }
+
+        addItemPostings(record.items1(), offset);
+        addItemPostings(record.items2(), offset);
+    }
+
+    private void addItemPostings(int[] packed, long offset) {
+        for (int i = 0; i < packed.length; i += 3) {
+            addItemPosting(packed[i], offset);
+        }
+    }
+
+    private void addItemPosting(int id, long offset) {
+        long[] postings = items.get(id);
+        int size = itemSizes.getOrDefault(id, 0);
+        // El mismo id puede aparecer varias veces en un registro
+        if (size > 0 && postings[size - 1] == offset) {
+            return;
+        }
+        items.put(id, append(postings, size, offset));
+        itemSizes.put(id, size + 1);
+    }
+
+    private static <K> void addPosting(Map<K, long[]> map, Map<K, Integer> sizes, K key, long offset) {
+        int size = sizes.getOrDefault(key, 0);
+        map.put(key, append(map.get(key), size, offset));
+        sizes.put(key, size + 1);
+    }
+
+    private static long[] append(long[] postings, int size, long offset) {
+        if (postings == null) {
+            postings = new long[4];
+        } else if (size == postings.length) {
+            long[] grown = new long[size * 2];
+            System.arraycopy(postings, 0, grown, 0, size);
+            postings = grown;
+        }
+        postings[size] = offset;
+        return postings;
+    }
+
+    public boolean isEmpty() {
+        return players.isEmpty();
+    }
+
+    /**
+     * @return Posiciones en orden creciente
+     */
+    public long[] offsetsFor(UUID player) {
+        long[] postings = players.get(player);
+        return postings == null ? NONE : trim(postings, playerSizes.get(player));
+    }
+
+    /**
+     * @return Posiciones en orden creciente
+     */
+    public long[] offsetsForItem(int id) {
+        long[] postings = items.get(id);
+        return postings == null ? NONE : trim(postings, itemSizes.get(id));
+    }
+
+    private static long[] trim(long[] postings, Integer size) {
+        if (size == null || size == postings.length) {
+            return postings;
+        }
+        long[] trimmed = new long[size];
+        System.arraycopy(postings, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Escribe en un temporal y lo mueve a su sitio: nunca queda un .idx a medias
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+
+            out.writeInt(players.size());
+            for (UUID player : players.keySet()) {
+                out.writeLong(player.getMostSignificantBits());
+                out.writeLong(player.getLeastSignificantBits());
+                writePostings(out, offsetsFor(player));
+            }
+
+            out.writeInt(items.size());
+            for (int id : items.keySet()) {
+                out.writeInt(id);
+                writePostings(out, offsetsForItem(id));
+            }
+
+            out.flush();
+            stream.getFD().sync();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePostings(DataOutputStream out, long[] postings) throws IOException {
+        out.writeInt(postings.length);
+        for (long offset : postings) {
+            out.writeLong(offset);
+        }
+    }
+
+    public static HistoryIndex read(File file) throws IOException {
+        // Ninguna cuenta válida puede pedir más entradas de las que caben en el fichero
+        long limit = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Índice de historial inválido: " + file.getName());
+            }
+
+            int playerCount = readCount(in, limit / 20);
+            Map<UUID, long[]> players = new HashMap<>(playerCount * 2);
+            for (int i = 0; i < playerCount; i++) {
+                players.put(new UUID(in.readLong(), in.readLong()), readPostings(in, limit));
+            }
+
+            int itemCount = readCount(in, limit / 8);
+            Map<Integer, long[]> items = new HashMap<>(itemCount * 2);
+            for (int i = 0; i < itemCount; i++) {
+                items.put(in.readInt(), readPostings(in, limit));
+            }
+
+            return new HistoryIndex(players, items);
+        }
+    }
+
+    private static int readCount(DataInputStream in, long limit) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > limit) {
+            throw new IOException("Índice de historial corrupto");
+        }
+        return count;
+    }
+
+    private static long[] readPostings(DataInputStream in, long limit) throws IOException {
+        int count = readCount(in, limit / 8);
+        long[] postings = new long[count];
+        for (int i = 0; i < count; i++) {
+            postings[i] = in.readLong();
+        }
+        return postings;
+    }
+
+    /**
+     * Lista de segmentos para recorrer de más nuevo a más viejo
+     */
+    static List<File> segmentsNewestFirst(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("trades-")
+                && (name.endsWith(".log") || name.endsWith(".log.gz")));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+
+        // Mientras se comprime existen el .log y el .gz a medias; vale el .log
+        Map<Long, File> byStart = new HashMap<>();
+        for (File file : files) {
+            long start = segmentStart(file);
+            File other = byStart.get(start);
+            if (other == null || file.getName().endsWith(".log")) {
+                byStart.put(start, file);
+            }
+        }
+
+        List<File> segments = new ArrayList<>(byStart.values());
+        segments.sort((a, b) -> Long.compare(segmentStart(b), segmentStart(a)));
+        return segments;
+    }
+
+    /**
+     * @return Milisegundos de inicio del segmento según su nombre
+     */
+    static long segmentStart(File segment) {
+        String name = segment.getName();
+        int end = name.indexOf('.');
+        try {
+            return Long.parseLong(name.substring("trades-".length(), end));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return Fichero .idx de un segmento (.log o .log.gz)
+     */
+    static File indexFileOf(File segment) {
+        String name = segment.getName();
+        return new File(segment.getParentFile(), name.substring(0, name.indexOf('.')) + ".idx");
+    }
+}
@@ -0,0 +1,243 @@
+package com.morelhaa.trade.history;
+
+import com.morelhaa.trade.TradePlugin;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Consultas sobre el historial en disco; se llaman fuera del hilo principal
+ * Los segmentos cerrados se consultan por su índice y solo se leen las líneas que coinciden;
+ * el segmento abierto (aún sin índice) se recorre entero
+ */
+public class HistoryStore {
+
+    private static final int CACHE_SIZE = 32;
+
+    private final TradePlugin plugin;
+    private final TradeHistory history;
+    // Últimos jugadores consultados: sus trades en segmentos cerrados, más nuevo primero
+    private final Map<UUID, CachedResult> cache = new LinkedHashMap<UUID, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, CachedResult> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public HistoryStore(TradePlugin plugin, TradeHistory history) {
+        this.plugin = plugin;
+        this.history = history;
+    }
+
+    /**
+     * @param player UUID del jugador
+     * @return Trades en los que participó, del más nuevo al más viejo
+     */
+    public List<TradeRecord> findByPlayer(UUID player) {
+        // Se lee antes de listar: si un segmento se cierra durante la búsqueda, la próxima recalcula
+        int version = history.getClosedSegments();
+        Segments segments = Segments.list(history.getFolder());
+
+        List<TradeRecord> result = scanUnindexed(segments.unindexed, record -> record.involves(player));
+
+        CachedResult cached;
+        synchronized (cache) {
+            cached = cache.get(player);
+        }
+        if (cached == null || cached.version != version) {
+            cached = new CachedResult(version, searchIndexed(segments.indexed, index -> index.offsetsFor(player),
+                    record -> record.involves(player)));
+            synchronized (cache) {
+                cache.put(player, cached);
+            }
+        }
+
+        result.addAll(cached.records);
+        return result;
+    }
+
+    /**
+     * @param itemId Id del item
+     * @return Trades que incluyen ese item en cualquiera de los dos lados, del más nuevo al más viejo
+     */
+    public List<TradeRecord> findByItem(int itemId) {
+        Segments segments = Segments.list(history.getFolder());
+        List<TradeRecord> result = scanUnindexed(segments.unindexed, record -> record.containsItem(itemId));
+        result.addAll(searchIndexed(segments.indexed, index -> index.offsetsForItem(itemId),
+                record -> record.containsItem(itemId)));
+        return result;
+    }
+
+    private List<TradeRecord> searchIndexed(List<File> segments, Function<HistoryIndex, long[]> lookup,
+                                            Predicate<TradeRecord> filter) {
+        List<TradeRecord> result = new ArrayList<>();
+
+        for (File segment : segments) {
+            File indexFile = HistoryIndex.indexFileOf(segment);
+
+            List<TradeRecord> found = new ArrayList<>();
+            try {
+                long[] offsets = lookup.apply(HistoryIndex.read(indexFile));
+                if (offsets.length > 0) {
+                    readAt(segment, offsets, found);
+                }
+                // Cada línea leída por el índice tiene que ser de verdad un resultado
+                if (found.size() != offsets.length || !found.stream().allMatch(filter)) {
+                    plugin.getLogger().warning("§cÍndice de historial desajustado (" + indexFile.getName() + "), se recorre el segmento.");
+                    found.clear();
+                    scan(segment, filter, found);
+                }
+            } catch (IOException e) {
+                // Índice dañado: se recorre el segmento entero
+                plugin.getLogger().warning("§cÍndice de historial ilegible (" + indexFile.getName() + "): " + e.getMessage());
+                found.clear();
+                scan(segment, filter, found);
+            }
+
+            Collections.reverse(found);
+            result.addAll(found);
+        }
+
+        return result;
+    }
+
+    /**
+     * Segmentos sin índice; tras recuperar los de un cierre inesperado solo queda el abierto, que es el más nuevo
+     */
+    private List<TradeRecord> scanUnindexed(List<File> segments, Predicate<TradeRecord> filter) {
+        List<TradeRecord> result = new ArrayList<>();
+
+        for (File segment : segments) {
+            List<TradeRecord> found = new ArrayList<>();
+            scan(segment, filter, found);
+            Collections.reverse(found);
+            result.addAll(found);
+        }
+
+        return result;
+    }
+
+    private void readAt(File segment, long[] offsets, List<TradeRecord> out) throws IOException {
+        try (InputStream in = open(segment)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(160);
+            long position = 0;
+
+            for (long offset : offsets) {
+                skipFully(in, offset - position);
+                position = offset;
+
+                line.reset();
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b == '\n') {
+                        break;
+                    }
+                    line.write(b);
+                }
+
+                TradeRecord record = TradeRecord.parse(line.toString(StandardCharsets.UTF_8));
+                if (record != null) {
+                    out.add(record);
+                }
+            }
+        }
+    }
+
+    private void scan(File segment, Predicate<TradeRecord> filter, List<TradeRecord> out) {
+        try (InputStream in = open(segment)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(160);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                TradeRecord record = TradeRecord.parse(line.toString(StandardCharsets.UTF_8));
+                if (record != null && filter.test(record)) {
+                    out.add(record);
+                }
+                line.reset();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("§cNo se pudo leer " + segment.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre un segmento; si se comprimió mientras tanto, abre el .gz
+     */
+    private static InputStream open(File segment) throws IOException {
+        File file = segment;
+        if (!file.exists() && !file.getName().endsWith(".gz")) {
+            file = new File(segment.getPath() + ".gz");
+        }
+
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            return file.getName().endsWith(".gz") ? new GZIPInputStream(in) : in;
+        } catch (FileNotFoundException e) {
+            throw new IOException("Segmento no encontrado: " + segment.getName(), e);
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Segmentos separados en indexados y sin índice una sola vez, para que un segmento
+     * que se cierra durante la consulta no se lea por las dos vías
+     */
+    private static final class Segments {
+        private final List<File> indexed = new ArrayList<>();
+        private final List<File> unindexed = new ArrayList<>();
+
+        private static Segments list(File folder) {
+            Segments segments = new Segments();
+            for (File segment : HistoryIndex.segmentsNewestFirst(folder)) {
+                if (HistoryIndex.indexFileOf(segment).exists()) {
+                    segments.indexed.add(segment);
+                } else {
+                    segments.unindexed.add(segment);
+                }
+            }
+            return segments;
+        }
+    }
+
+    private static final class CachedResult {
+        private final int version;
+        private final List<TradeRecord> records;
+
+        private CachedResult(int version, List<TradeRecord> records) {
+            this.version = version;
+            this.records = records;
+        }
+    }
+}
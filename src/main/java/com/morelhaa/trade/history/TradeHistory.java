@@ -0,0 +1,352 @@
+package com.morelhaa.trade.history;
+
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.TradeSettings;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Historial de trades para moderación
+ * El hilo principal solo encola; un hilo propio escribe por lotes en ficheros
+ * history/trades-<inicio>.log que rotan por tamaño o por tiempo; al cerrarse cada uno
+ * se escribe su índice (.idx) y se comprime
+ */
+public class TradeHistory {
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long DROP_REPORT_MILLIS = 60_000;
+
+    private final TradePlugin plugin;
+    private final File folder;
+    private final boolean enabled;
+    private final int capacity;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final boolean compress;
+
+    private final ConcurrentLinkedQueue<TradeRecord> queue = new ConcurrentLinkedQueue<>();
+    // Tamaño de la cola (ConcurrentLinkedQueue.size() recorre la cola entera)
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written;
+    private volatile int highWatermark;
+    private volatile boolean running;
+    // Sube cada vez que un segmento queda cerrado e indexado (invalida la caché de consultas)
+    private volatile int closedSegments;
+    private Thread writer;
+    private final HistoryStore store;
+
+    // Solo los usa el hilo escritor
+    private OutputStream segment;
+    private File segmentFile;
+    private long segmentBytes;
+    private long segmentStart;
+    private HistoryIndex segmentIndex;
+    private long lastDropReport;
+    private long droppedReported;
+
+    public TradeHistory(TradePlugin plugin) {
+        TradeSettings settings = plugin.getSettings();
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "history");
+        this.enabled = settings.historyEnabled();
+        this.capacity = settings.historyQueueSize();
+        this.maxSegmentBytes = settings.historySegmentBytes();
+        this.maxSegmentMillis = TimeUnit.MINUTES.toMillis(settings.historySegmentMinutes());
+        this.compress = settings.historyCompress();
+        this.store = new HistoryStore(plugin, this);
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        running = true;
+        writer = new Thread(this::run, "TradeHistory-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Encola un registro; nunca bloquea
+     * @param record Trade terminado
+     * @return false si el historial está desactivado o la cola está llena
+     */
+    public boolean record(TradeRecord record) {
+        if (!running) {
+            return false;
+        }
+
+        int size = queued.incrementAndGet();
+        if (size > capacity) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        queue.offer(record);
+        if (size > highWatermark) {
+            highWatermark = size;
+        }
+        return true;
+    }
+
+    /**
+     * Para el hilo escritor después de vaciar la cola
+     */
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (writer.isAlive()) {
+            plugin.getLogger().warning("§cEl historial de trades no terminó de escribirse (" + queued.get() + " pendientes).");
+        }
+        plugin.getLogger().info("§aHistorial de trades: " + written + " escritos, " + dropped.get()
+                + " descartados, máximo en cola " + highWatermark + ".");
+        writer = null;
+    }
+
+    private void run() {
+        recoverSegments();
+
+        List<TradeRecord> batch = new ArrayList<>(MAX_BATCH);
+
+        while (true) {
+            // Leer el estado antes de vaciar: si ya se pidió parar, esta es la última pasada
+            boolean stopping = !running;
+
+            TradeRecord record;
+            while (batch.size() < MAX_BATCH && (record = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(record);
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+                continue;
+            }
+
+            if (stopping) {
+                break;
+            }
+
+            reportDropped();
+            if (segment != null && System.currentTimeMillis() - segmentStart >= maxSegmentMillis) {
+                closeSegment();
+            }
+            LockSupport.parkNanos(IDLE_NANOS);
+        }
+
+        closeSegment();
+    }
+
+    private void write(List<TradeRecord> batch) {
+        try {
+            if (segment != null && (segmentBytes >= maxSegmentBytes
+                    || System.currentTimeMillis() - segmentStart >= maxSegmentMillis)) {
+                closeSegment();
+            }
+            if (segment == null) {
+                openSegment();
+            }
+
+            // Cada línea se codifica aparte para conocer su posición en el segmento
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * 160);
+            StringBuilder line = new StringBuilder(160);
+            long[] offsets = new long[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                line.setLength(0);
+                batch.get(i).appendTo(line);
+                offsets[i] = segmentBytes + bytes.size();
+                bytes.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            bytes.writeTo(segment);
+            segment.flush();
+
+            // Solo se indexa lo que ya está escrito
+            for (int i = 0; i < offsets.length; i++) {
+                segmentIndex.add(batch.get(i), offsets[i]);
+            }
+            segmentBytes += bytes.size();
+            written += batch.size();
+        } catch (IOException e) {
+            plugin.getLogger().error("Error escribiendo el historial de trades (" + batch.size() + " registros perdidos): " + e.getMessage());
+            // El lote puede haber quedado a medias: el segmento se cierra con lo ya indexado
+            // y el siguiente lote empieza uno nuevo, así ninguna posición queda desplazada
+            closeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentStart = System.currentTimeMillis();
+        segmentFile = new File(folder, "trades-" + segmentStart + ".log");
+        segment = new FileOutputStream(segmentFile, true);
+        segmentBytes = segmentFile.length();
+        segmentIndex = new HistoryIndex();
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+
+        try {
+            segment.close();
+        } catch (IOException e) {
+            plugin.getLogger().error("Error cerrando " + segmentFile.getName() + ": " + e.getMessage());
+        }
+        segment = null;
+
+        finishSegment(segmentFile, segmentIndex);
+        segmentIndex = null;
+    }
+
+    /**
+     * Escribe el índice de un segmento cerrado y lo comprime
+     */
+    private void finishSegment(File file, HistoryIndex index) {
+        try {
+            index.write(HistoryIndex.indexFileOf(file));
+        } catch (IOException e) {
+            plugin.getLogger().error("Error escribiendo el índice de " + file.getName() + ": " + e.getMessage());
+        }
+
+        if (compress) {
+            compress(file);
+        }
+        closedSegments++;
+    }
+
+    /**
+     * Indexa (y comprime) los segmentos que quedaron abiertos tras un cierre inesperado
+     */
+    private void recoverSegments() {
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("trades-") && name.endsWith(".log"));
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (HistoryIndex.indexFileOf(file).exists()) {
+                continue;
+            }
+
+            HistoryIndex index = new HistoryIndex();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(160);
+                long offset = 0;
+                long lineStart = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    offset++;
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    TradeRecord record = TradeRecord.parse(line.toString(StandardCharsets.UTF_8));
+                    if (record != null) {
+                        index.add(record, lineStart);
+                    }
+                    line.reset();
+                    lineStart = offset;
+                }
+            } catch (IOException e) {
+                plugin.getLogger().error("Error recuperando " + file.getName() + ": " + e.getMessage());
+                continue;
+            }
+
+            finishSegment(file, index);
+        }
+    }
+
+    private void compress(File file) {
+        File target = new File(file.getPath() + ".gz");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(target))) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            plugin.getLogger().error("Error comprimiendo " + file.getName() + ": " + e.getMessage());
+            target.delete();
+            return;
+        }
+
+        if (!file.delete()) {
+            plugin.getLogger().warning("§cNo se pudo borrar " + file.getName() + " tras comprimirlo.");
+        }
+    }
+
+    private void reportDropped() {
+        long total = dropped.get();
+        long now = System.currentTimeMillis();
+        if (total != droppedReported && now - lastDropReport >= DROP_REPORT_MILLIS) {
+            plugin.getLogger().warning("§cHistorial de trades saturado: " + (total - droppedReported)
+                    + " registros descartados (cola de " + capacity + ").");
+            droppedReported = total;
+            lastDropReport = now;
+        }
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public int getClosedSegments() {
+        return closedSegments;
+    }
+
+    public HistoryStore getStore() {
+        return store;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
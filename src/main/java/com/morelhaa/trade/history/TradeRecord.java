@@ -0,0 +1,144 @@
+package com.morelhaa.trade.history;
+
+import cn.nukkit.Player;
+import cn.nukkit.item.Item;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Un trade terminado, tal y como se guarda en el historial
+ * Los items se guardan como ternas id, meta, cantidad para no compartir objetos Item con el hilo escritor
+ */
+public record TradeRecord(
+        long timestamp,
+        boolean completed,
+        UUID player1,
+        String name1,
+        UUID player2,
+        String name2,
+        int[] items1,
+        int[] items2
+) {
+
+    /**
+     * @param completed true si se completó, false si se canceló
+     * @return Registro con la hora actual
+     */
+    public static TradeRecord of(boolean completed, Player player1, Player player2, List<Item> items1, List<Item> items2) {
+        return new TradeRecord(
+                System.currentTimeMillis(),
+                completed,
+                player1.getUniqueId(),
+                player1.getName(),
+                player2.getUniqueId(),
+                player2.getName(),
+                pack(items1),
+                pack(items2)
+        );
+    }
+
+    private static int[] pack(List<Item> items) {
+        int[] packed = new int[items.size() * 3];
+        int i = 0;
+        for (Item item : items) {
+            packed[i++] = item.getId();
+            packed[i++] = item.getDamage();
+            packed[i++] = item.getCount();
+        }
+        return packed;
+    }
+
+    /**
+     * Una línea separada por tabuladores:
+     * fecha, COMPLETED/CANCELLED, uuid1, nombre1, uuid2, nombre2, items1, items2 (id:meta:cantidad,...)
+     */
+    public void appendTo(StringBuilder line) {
+        line.append(Instant.ofEpochMilli(timestamp)).append('\t')
+                .append(completed ? "COMPLETED" : "CANCELLED").append('\t')
+                .append(player1).append('\t').append(name1).append('\t')
+                .append(player2).append('\t').append(name2).append('\t');
+        appendItems(line, items1);
+        line.append('\t');
+        appendItems(line, items2);
+        line.append('\n');
+    }
+
+    private static void appendItems(StringBuilder line, int[] items) {
+        if (items.length == 0) {
+            line.append('-');
+            return;
+        }
+        for (int i = 0; i < items.length; i += 3) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(items[i]).append(':').append(items[i + 1]).append(':').append(items[i + 2]);
+        }
+    }
+
+    /**
+     * Inverso de appendTo
+     * @param line Línea del historial sin el salto de línea
+     * @return Registro, o null si la línea no es válida
+     */
+    public static TradeRecord parse(String line) {
+        String[] parts = line.split("\t");
+        if (parts.length != 8) {
+            return null;
+        }
+
+        try {
+            return new TradeRecord(
+                    Instant.parse(parts[0]).toEpochMilli(),
+                    parts[1].equals("COMPLETED"),
+                    UUID.fromString(parts[2]),
+                    parts[3],
+                    UUID.fromString(parts[4]),
+                    parts[5],
+                    parseItems(parts[6]),
+                    parseItems(parts[7])
+            );
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int[] parseItems(String text) {
+        if (text.equals("-")) {
+            return new int[0];
+        }
+
+        String[] entries = text.split(",");
+        int[] packed = new int[entries.length * 3];
+        for (int i = 0; i < entries.length; i++) {
+            String[] fields = entries[i].split(":");
+            packed[i * 3] = Integer.parseInt(fields[0]);
+            packed[i * 3 + 1] = Integer.parseInt(fields[1]);
+            packed[i * 3 + 2] = Integer.parseInt(fields[2]);
+        }
+        return packed;
+    }
+
+    /**
+     * @return true si alguno de los dos lados incluye ese id de item
+     */
+    public boolean containsItem(int id) {
+        for (int i = 0; i < items1.length; i += 3) {
+            if (items1[i] == id) {
+                return true;
+            }
+        }
+        for (int i = 0; i < items2.length; i += 3) {
+            if (items2[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean involves(UUID player) {
+        return player1.equals(player) || player2.equals(player);
+    }
+}
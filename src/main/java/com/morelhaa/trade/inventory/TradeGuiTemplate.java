@@ -0,0 +1,76 @@
+package com.morelhaa.trade.inventory;
+
+import cn.nukkit.item.Item;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contenido inicial de la GUI (separadores y botón de listo) construido una vez por carga de config
+ * Las sesiones copian el contenido de golpe y cambian el botón por items ya construidos
+ */
+public final class TradeGuiTemplate {
+
+    private final Map<Integer, Item> contents;
+    private final Item noneReadyButton;
+    private final Item bothReadyButton;
+
+    private TradeGuiTemplate(Map<Integer, Item> contents, Item noneReadyButton, Item bothReadyButton) {
+        this.contents = contents;
+        this.noneReadyButton = noneReadyButton;
+        this.bothReadyButton = bothReadyButton;
+    }
+
+    /**
+     * @param separatorSlots Slots separadores
+     * @param separatorName Nombre de los cristales separadores
+     * @param readyButtonSlot Slot del botón de listo
+     * @return Plantilla inmutable
+     */
+    public static TradeGuiTemplate build(List<Integer> separatorSlots, String separatorName, int readyButtonSlot) {
+        Item glass = Item.get(95, 7);
+        glass.setCustomName(separatorName);
+
+        Item noneReady = Item.get(95, 14);
+        noneReady.setCustomName("§cNinguno listo");
+
+        Item bothReady = Item.get(95, 5);
+        bothReady.setCustomName("§a¡Ambos listos!");
+
+        Map<Integer, Item> contents = new HashMap<>();
+        for (int slot : separatorSlots) {
+            contents.put(slot, glass);
+        }
+        contents.put(readyButtonSlot, noneReady);
+
+        return new TradeGuiTemplate(Collections.unmodifiableMap(contents), noneReady, bothReady);
+    }
+
+    /**
+     * Contenido para Inventory.setContents (el inventario clona cada item al copiarlo)
+     */
+    public Map<Integer, Item> getContents() {
+        return contents;
+    }
+
+    public Item getNoneReadyButton() {
+        return noneReadyButton;
+    }
+
+    public Item getBothReadyButton() {
+        return bothReadyButton;
+    }
+
+    /**
+     * Botón de "un jugador listo"; se construye una vez por jugador al empezar la sesión
+     * @param playerName Jugador que está listo
+     * @return Botón nuevo
+     */
+    public Item createOneReadyButton(String playerName) {
+        Item button = Item.get(95, 4);
+        button.setCustomName("§e-" + playerName + " está listo");
+        return button;
+    }
+}
@@ -0,0 +1,167 @@
+package com.morelhaa.trade.inventory;
+
+import cn.nukkit.Player;
+import cn.nukkit.block.Block;
+import cn.nukkit.blockentity.BlockEntity;
+import cn.nukkit.inventory.ContainerInventory;
+import cn.nukkit.inventory.Inventory;
+import cn.nukkit.inventory.InventoryHolder;
+import cn.nukkit.inventory.InventoryType;
+import cn.nukkit.level.GlobalBlockPalette;
+import cn.nukkit.level.Level;
+import cn.nukkit.level.Position;
+import cn.nukkit.math.Vector3;
+import cn.nukkit.nbt.NBTIO;
+import cn.nukkit.nbt.tag.CompoundTag;
+import cn.nukkit.network.protocol.BlockEntityDataPacket;
+import cn.nukkit.network.protocol.ContainerOpenPacket;
+import cn.nukkit.network.protocol.UpdateBlockPacket;
+import com.morelhaa.trade.TradePlugin;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cofre doble que solo existe en memoria
+ * A cada espectador se le envía un cofre falso (bloques y block entity por paquete)
+ * cerca de su posición; el mundo y sus chunks no se tocan
+ */
+public class VirtualChestInventory extends ContainerInventory {
+
+    // Ticks de espera para que el cliente empareje las dos mitades antes de abrir
+    private static final int OPEN_DELAY = 3;
+
+    private final TradePlugin plugin;
+    private final Map<Player, String> titles = new HashMap<>();
+    // Posición y mundo del cofre falso de cada espectador
+    private final Map<Player, Position> fakeChests = new HashMap<>();
+
+    public VirtualChestInventory(TradePlugin plugin) {
+        super(new Holder(), InventoryType.DOUBLE_CHEST);
+        ((Holder) this.holder).inventory = this;
+        this.plugin = plugin;
+    }
+
+    /**
+     * @param viewer Jugador que verá el título
+     * @param title Título del cofre para ese jugador
+     */
+    public void setTitle(Player viewer, String title) {
+        titles.put(viewer, title);
+    }
+
+    @Override
+    public void onOpen(Player who) {
+        // Igual que BaseInventory.onOpen; el paquete de apertura se envía más tarde
+        this.viewers.add(who);
+
+        Position position = chestPosition(who);
+        fakeChests.put(who, position);
+
+        String title = titles.getOrDefault(who, "");
+        int x = (int) position.x;
+        int y = (int) position.y;
+        int z = (int) position.z;
+
+        sendFakeBlock(who, x, y, z);
+        sendFakeBlock(who, x + 1, y, z);
+        sendChestData(who, x, y, z, x + 1, title, true);
+        sendChestData(who, x + 1, y, z, x, title, false);
+
+        plugin.getTimingWheel().schedule(() -> {
+            if (this.viewers.contains(who) && fakeChests.get(who) == position) {
+                sendOpen(who, x, y, z);
+            }
+        }, OPEN_DELAY);
+    }
+
+    @Override
+    public void onClose(Player who) {
+        super.onClose(who);
+
+        Position position = fakeChests.remove(who);
+        if (position == null || !who.isOnline()) {
+            return;
+        }
+
+        // Devolver al cliente los bloques reales del mundo donde se puso el cofre;
+        // si ya está en otro mundo, el cliente descartó esos chunks y los recibirá de nuevo al volver
+        Level level = position.getLevel();
+        if (level != null && level == who.getLevel()) {
+            level.sendBlocks(
+                    new Player[]{who},
+                    new Vector3[]{position, position.add(1, 0, 0)},
+                    UpdateBlockPacket.FLAG_ALL_PRIORITY
+            );
+        }
+    }
+
+    private void sendOpen(Player who, int x, int y, int z) {
+        ContainerOpenPacket packet = new ContainerOpenPacket();
+        packet.windowId = who.getWindowId(this);
+        packet.type = getType().getNetworkType();
+        packet.x = x;
+        packet.y = y;
+        packet.z = z;
+        who.dataPacket(packet);
+
+        this.sendContents(who);
+    }
+
+    /**
+     * Dos bloques por encima de la cabeza, o por debajo si no hay altura
+     */
+    private static Position chestPosition(Player player) {
+        int y = player.getFloorY() + 2;
+        if (y > 255) {
+            y = player.getFloorY() - 2;
+        }
+        return new Position(player.getFloorX(), y, player.getFloorZ(), player.getLevel());
+    }
+
+    private static void sendFakeBlock(Player player, int x, int y, int z) {
+        UpdateBlockPacket packet = new UpdateBlockPacket();
+        packet.x = x;
+        packet.y = y;
+        packet.z = z;
+        packet.blockRuntimeId = GlobalBlockPalette.getOrCreateRuntimeId(Block.CHEST, 0);
+        packet.flags = UpdateBlockPacket.FLAG_ALL_PRIORITY;
+        player.dataPacket(packet);
+    }
+
+    private void sendChestData(Player player, int x, int y, int z, int pairX, String title, boolean lead) {
+        CompoundTag nbt = new CompoundTag()
+                .putString("id", BlockEntity.CHEST)
+                .putInt("x", x)
+                .putInt("y", y)
+                .putInt("z", z)
+                .putInt("pairx", pairX)
+                .putInt("pairz", z)
+                .putBoolean("pairlead", lead)
+                .putString("CustomName", title);
+
+        BlockEntityDataPacket packet = new BlockEntityDataPacket();
+        packet.x = x;
+        packet.y = y;
+        packet.z = z;
+        try {
+            packet.namedTag = NBTIO.write(nbt, ByteOrder.LITTLE_ENDIAN, true);
+        } catch (IOException e) {
+            plugin.getLogger().error("Error creando el cofre del trade: " + e.getMessage());
+            return;
+        }
+        player.dataPacket(packet);
+    }
+
+    private static class Holder implements InventoryHolder {
+
+        private Inventory inventory;
+
+        @Override
+        public Inventory getInventory() {
+            return inventory;
+        }
+    }
+}
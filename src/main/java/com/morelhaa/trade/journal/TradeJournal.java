@@ -0,0 +1,388 @@
+package com.morelhaa.trade.journal;
+
+import cn.nukkit.item.Item;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.utils.ItemCodec;
+import com.morelhaa.trade.utils.LongHashSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de solo-añadir (mapeado en memoria) de las entregas de items de cada trade
+ * Cada movimiento queda como PREPARE (ambas ofertas) -> APPLY o ROLLBACK -> DONE;
+ * al arrancar, lo que no llegó a DONE se completa o se devuelve a través del buzón
+ * Mientras el trade está abierto se repite PREPARE con las ofertas actuales (vale el último),
+ * así lo que está en la ventana también se recupera
+ *
+ * Límites: los registros quedan en la caché de páginas al escribirse, así que sobreviven a que
+ * se mate el proceso; el force() a disco se agrupa y llega un tick después de entregar los items,
+ * por lo que un corte de luz o un fallo del sistema operativo puede perder el último tick.
+ * Los jugadores se guardan (en otro hilo) al terminar cada trade, no en cada clic: si el servidor
+ * cae con items en la ventana y el último autoguardado es anterior a ofrecerlos, el inventario
+ * guardado aún los tiene y el buzón los devuelve otra vez
+ *
+ * Formato: cabecera [magic int][generación long] y registros
+ * [longitud int][crc32 int][generación long][tipo byte][id long][datos]
+ */
+public class TradeJournal {
+
+    private static final int MAGIC = 0x54524A31;
+    private static final int HEADER_SIZE = 16;
+    // generación + tipo + id
+    private static final int RECORD_FIXED = 8 + 1 + 8;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    private static final byte PREPARE = 1;
+    private static final byte APPLY = 2;
+    private static final byte ROLLBACK = 3;
+    private static final byte DONE = 4;
+
+    private final TradePlugin plugin;
+    private final File file;
+    // Entradas con PREPARE y sin DONE
+    private final LongHashSet open = new LongHashSet();
+    // Un solo force() por tick para todas las sesiones
+    private final AtomicBoolean forceScheduled = new AtomicBoolean();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long generation;
+    private int position;
+    private long nextId = 1;
+
+    public TradeJournal(TradePlugin plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "trades.journal");
+    }
+
+    /**
+     * Abre el diario, recupera los trades a medias y empieza una generación nueva
+     * Debe llamarse después de cargar el buzón
+     */
+    public void open() {
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            int capacity = (int) Math.max(channel.size(), INITIAL_CAPACITY);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            plugin.getLogger().error("No se pudo abrir el diario de trades, se continúa sin él: " + e.getMessage());
+            close();
+            return;
+        }
+
+        if (buffer.getInt(0) == MAGIC) {
+            generation = buffer.getLong(4);
+            replay();
+        }
+
+        reset();
+        buffer.force();
+    }
+
+    /**
+     * Registra las dos ofertas antes de mover ningún item
+     * @param id Entrada ya abierta para el trade, o -1 para abrir una nueva
+     * @return Id de la entrada, o -1 si el diario no está disponible
+     * @throws IllegalStateException si no se pudo escribir (el diario queda desactivado)
+     */
+    public long prepare(long id, UUID player1, UUID player2, List<Item> items1, List<Item> items2) {
+        if (buffer == null) {
+            return -1;
+        }
+
+        byte[] payload;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + (items1.size() + items2.size()) * 24);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(player1.getMostSignificantBits());
+            out.writeLong(player1.getLeastSignificantBits());
+            out.writeLong(player2.getMostSignificantBits());
+            out.writeLong(player2.getLeastSignificantBits());
+            writeItems(out, items1);
+            writeItems(out, items2);
+            payload = bytes.toByteArray();
+        } catch (IOException e) {
+            plugin.getLogger().error("Error serializando un trade para el diario: " + e.getMessage());
+            return -1;
+        }
+
+        synchronized (this) {
+            if (buffer == null) {
+                return -1;
+            }
+            if (id < 0) {
+                id = nextId++;
+            }
+            append(PREPARE, id, payload);
+            open.add(id);
+            return id;
+        }
+    }
+
+    /**
+     * Punto sin retorno: las ofertas se intercambian
+     */
+    public void apply(long id) {
+        mark(APPLY, id);
+    }
+
+    /**
+     * Las ofertas vuelven a sus dueños
+     */
+    public void rollback(long id) {
+        mark(ROLLBACK, id);
+    }
+
+    /**
+     * Los items ya están en los inventarios (o en el buzón)
+     */
+    public void done(long id) {
+        mark(DONE, id);
+    }
+
+    private void mark(byte type, long id) {
+        if (id < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if (buffer == null) {
+                return;
+            }
+            append(type, id, new byte[0]);
+
+            if (type == DONE) {
+                open.remove(id);
+                // Sin trades a medias se puede volver al principio del fichero
+                if (open.isEmpty() && position > buffer.capacity() / 2) {
+                    reset();
+                }
+            }
+        }
+    }
+
+    private void append(byte type, long id, byte[] payload) {
+        int length = RECORD_FIXED + payload.length;
+        // Registro + 4 bytes a cero que marcan el final
+        ensureCapacity(8 + length + 4);
+
+        int start = position;
+        buffer.position(start + 8);
+        buffer.putLong(generation);
+        buffer.put(type);
+        buffer.putLong(id);
+        buffer.put(payload);
+        buffer.putInt(0);
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + 8).limit(start + 8 + length);
+        crc.update(body);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        // La longitud se escribe la última: hasta entonces el registro no existe
+        buffer.putInt(start, length);
+
+        position = start + 8 + length;
+        scheduleForce();
+    }
+
+    /**
+     * No se pudo escribir: se invalidan los registros (recuperarlos ya no sería fiable) y se deja de usar el diario
+     */
+    private void disable(IOException cause) {
+        plugin.getLogger().error("No se pudo ampliar el diario de trades, se desactiva: " + cause.getMessage());
+        reset();
+        close();
+        open.clear();
+        throw new IllegalStateException("No se pudo ampliar el diario de trades", cause);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (position + needed <= buffer.capacity()) {
+            return;
+        }
+
+        if (open.isEmpty()) {
+            reset();
+            if (position + needed <= buffer.capacity()) {
+                return;
+            }
+        }
+
+        int capacity = buffer.capacity();
+        while (capacity < position + needed) {
+            capacity *= 2;
+        }
+
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * Nueva generación: los registros anteriores dejan de ser válidos
+     */
+    private void reset() {
+        generation++;
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, generation);
+        buffer.putInt(HEADER_SIZE, 0);
+        position = HEADER_SIZE;
+    }
+
+    private void scheduleForce() {
+        if (forceScheduled.compareAndSet(false, true)) {
+            plugin.getServer().getScheduler().scheduleDelayedTask(plugin, this::force, 1, true);
+        }
+    }
+
+    private void force() {
+        forceScheduled.set(false);
+        MappedByteBuffer target;
+        synchronized (this) {
+            target = buffer;
+        }
+        if (target != null) {
+            target.force();
+        }
+    }
+
+    /**
+     * Fuerza a disco lo pendiente y cierra el fichero
+     */
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().error("Error cerrando el diario de trades: " + e.getMessage());
+        }
+        channel = null;
+        raf = null;
+    }
+
+    private void replay() {
+        Map<Long, byte[]> prepared = new HashMap<>();
+        Map<Long, Byte> states = new HashMap<>();
+
+        int pos = HEADER_SIZE;
+        int capacity = buffer.capacity();
+        CRC32 crc = new CRC32();
+
+        while (pos + 8 <= capacity) {
+            int length = buffer.getInt(pos);
+            if (length < RECORD_FIXED || pos + 8 + length > capacity) {
+                break;
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(pos + 8).limit(pos + 8 + length);
+            crc.reset();
+            crc.update(body);
+            // Registro cortado a medias o restos de una generación anterior
+            if ((int) crc.getValue() != buffer.getInt(pos + 4) || buffer.getLong(pos + 8) != generation) {
+                break;
+            }
+
+            byte type = buffer.get(pos + 16);
+            long id = buffer.getLong(pos + 17);
+
+            if (type == PREPARE) {
+                // Un PREPARE repetido sustituye las ofertas anteriores
+                byte[] payload = new byte[length - RECORD_FIXED];
+                buffer.get(pos + 8 + RECORD_FIXED, payload);
+                prepared.put(id, payload);
+                states.put(id, PREPARE);
+            } else if (type == DONE) {
+                prepared.remove(id);
+                states.remove(id);
+            } else if (prepared.containsKey(id)) {
+                states.put(id, type);
+            }
+
+            pos += 8 + length;
+        }
+
+        if (prepared.isEmpty()) {
+            return;
+        }
+
+        int forward = 0;
+        for (Map.Entry<Long, byte[]> entry : prepared.entrySet()) {
+            boolean applied = states.get(entry.getKey()) == APPLY;
+            try {
+                recover(entry.getValue(), applied);
+                if (applied) {
+                    forward++;
+                }
+            } catch (IOException e) {
+                plugin.getLogger().error("Entrada " + entry.getKey() + " del diario de trades ilegible: " + e.getMessage());
+            }
+        }
+
+        plugin.getLogger().warning("§eRecuperados " + prepared.size() + " trades a medias del diario ("
+                + forward + " completados, " + (prepared.size() - forward) + " devueltos). Los items están en el buzón.");
+    }
+
+    /**
+     * Entrega por el buzón (de forma síncrona) lo que le corresponde a cada jugador
+     * @param applied true para completar el intercambio, false para devolver cada oferta a su dueño
+     */
+    private void recover(byte[] payload, boolean applied) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        UUID player1 = new UUID(in.readLong(), in.readLong());
+        UUID player2 = new UUID(in.readLong(), in.readLong());
+        List<Item> items1 = readItems(in);
+        List<Item> items2 = readItems(in);
+
+        plugin.getMailbox().depositNow(player1, applied ? items2 : items1);
+        plugin.getMailbox().depositNow(player2, applied ? items1 : items2);
+    }
+
+    private static void writeItems(DataOutputStream out, List<Item> items) throws IOException {
+        out.writeInt(items.size());
+        for (Item item : items) {
+            ItemCodec.write(out, item);
+        }
+    }
+
+    private static List<Item> readItems(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Número de items inválido: " + count);
+        }
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(ItemCodec.read(in));
+        }
+        return items;
+    }
+}
@@ -8,15 +8,18 @@ import cn.nukkit.event.inventory.InventoryClickEvent;
 import cn.nukkit.event.inventory.InventoryCloseEvent;
 import cn.nukkit.event.inventory.InventoryTransactionEvent;
 import cn.nukkit.event.player.PlayerFormRespondedEvent;
+import cn.nukkit.event.player.PlayerJoinEvent;
 import cn.nukkit.event.player.PlayerQuitEvent;
 import cn.nukkit.event.player.PlayerDeathEvent;
 import cn.nukkit.event.player.PlayerTeleportEvent;
 import cn.nukkit.form.response.FormResponseSimple;
+import cn.nukkit.inventory.Inventory;
 import cn.nukkit.inventory.transaction.InventoryTransaction;
 import cn.nukkit.inventory.transaction.action.InventoryAction;
 import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.SlotLayout;
+import com.morelhaa.trade.config.TradeSettings;
 import com.morelhaa.trade.session.TradeSession;
-import com.morelhaa.trade.utils.TradeUtils;
 
 public class TradeListener implements Listener {
 
@@ -27,38 +30,43 @@ public class TradeListener implements Listener {
     }
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onInventoryTransaction(InventoryTransactionEvent event) {
-        Player player = event.getTransaction().getSource();
+        if (event.isCancelled()) {
+            return;
+        }
+
+        InventoryTransaction transaction = event.getTransaction();
+        Player player = transaction.getSource();
         TradeSession session = plugin.getTradeManager().getSession(player);
 
         if (session == null) {
             return;
         }
 
-        InventoryTransaction transaction = event.getTransaction();
+        Inventory tradeInventory = session.getInventory();
 
+        // Primero se decide si se cancela; solo se anota algo si la transacción sigue adelante
+        boolean touchesTrade = false;
         for (InventoryAction action : transaction.getActions()) {
-            if (action.getInventory().equals(session.getInventory())) {
-                int slot = -1;
-                if (action.getSlot() >= 0) {
-                    slot = action.getSlot();
-                }
-
-                if (slot >= 0) {
-                    session.handleClick(player, slot, action.getTargetItem());
-                }
+            if (action.getInventory() != tradeInventory) {
+                continue;
+            }
+            // Solo se permite mover items en los slots de oferta propios;
+            // el botón de listo se gestiona en onInventoryClick
+            if (!session.canOffer(player, action.getSlot(), action.getTargetItem())) {
+                event.setCancelled(true);
+                return;
+            }
+            touchesTrade = true;
+        }
 
-                if (TradeUtils.isSeparatorSlot(slot)) {
-                    event.setCancelled(true);
-                    return;
-                }
+        if (!touchesTrade) {
+            return;
+        }
 
-                boolean isPlayer1 = player.equals(session.getPlayer1());
-                boolean isLeftSide = TradeUtils.isLeftSide(slot);
-                boolean isRightSide = TradeUtils.isRightSide(slot);
-                if ((isPlayer1 && isRightSide) || (!isPlayer1 && isLeftSide)) {
-                    event.setCancelled(true);
-                    return;
-                }
+        // Pista para el estado de listo; al completar se lee la ventana real
+        for (InventoryAction action : transaction.getActions()) {
+            if (action.getInventory() == tradeInventory) {
+                session.recordOffer(player, action.getSlot(), action.getTargetItem());
             }
         }
     }
@@ -68,23 +76,20 @@ public class TradeListener implements Listener {
         Player player = event.getPlayer();
         TradeSession session = plugin.getTradeManager().getSession(player);
 
-        if (session == null) {
+        if (session == null || event.getInventory() != session.getInventory()) {
             return;
         }
 
-        if (event.getInventory().equals(session.getInventory())) {
-            int slot = event.getSlot();
+        byte role = plugin.getSettings().slotLayout().roleOf(event.getSlot());
 
-            if (TradeUtils.isSeparatorSlot(slot)) {
-                event.setCancelled(true);
-                return;
-            }
+        if (role == SlotLayout.READY_BUTTON) {
+            event.setCancelled(true);
+            session.toggleReady(player);
+            return;
+        }
 
-            if (slot == plugin.getReadyButtonSlot()) {
-                event.setCancelled(true);
-                session.handleClick(player, slot, null);
-                return;
-            }
+        if (role == SlotLayout.SEPARATOR || role == SlotLayout.NONE) {
+            event.setCancelled(true);
         }
     }
 
@@ -98,15 +103,11 @@ public class TradeListener implements Listener {
         }
 
         if (event.getInventory().equals(session.getInventory())) {
-            plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> {
-                if (plugin.getTradeManager().getSession(player) != null) {
-                    Player other = session.getOtherPlayer(player);
-
-                    session.cancel();
-
-                    if (other != null && other.isOnline()) {
-                        other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
-                    }
+            plugin.getTimingWheel().schedule(() -> {
+                // Si ya se completó o canceló por otra vía, cancel() no hace nada
+                Player other = session.getOtherPlayer(player);
+                if (session.cancel() && other.isOnline()) {
+                    other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
                 }
             }, 1);
         }
@@ -116,6 +117,11 @@ public class TradeListener implements Listener {
     public void onFormRespond(PlayerFormRespondedEvent event) {
         Player player = event.getPlayer();
 
+        if (event.wasClosed()) {
+            plugin.getTradeManager().handleFormClosed(player, event.getFormID());
+            return;
+        }
+
         if (event.getResponse() instanceof FormResponseSimple) {
             FormResponseSimple response = (FormResponseSimple) event.getResponse();
             int formId = event.getFormID();
@@ -124,6 +130,16 @@ public class TradeListener implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        plugin.getPermissionCache().load(player);
+
+        if (plugin.getSettings().mailboxRedeemOnJoin() && plugin.getMailbox().hasPending(player.getUniqueId())) {
+            plugin.getMailbox().redeem(player, true);
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player player = event.getPlayer();
@@ -131,14 +147,13 @@ public class TradeListener implements Listener {
         TradeSession session = plugin.getTradeManager().getSession(player);
         if (session != null) {
             Player other = session.getOtherPlayer(player);
-            session.cancel();
-
-            if (other != null && other.isOnline()) {
+            if (session.cancel() && other.isOnline()) {
                 other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
             }
         }
 
         plugin.getTradeManager().cancelRequest(player);
+        plugin.getPermissionCache().invalidate(player);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -148,9 +163,7 @@ public class TradeListener implements Listener {
         TradeSession session = plugin.getTradeManager().getSession(player);
         if (session != null) {
             Player other = session.getOtherPlayer(player);
-            session.cancel();
-
-            if (other != null && other.isOnline()) {
+            if (session.cancel() && other.isOnline()) {
                 other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
             }
         }
@@ -169,24 +182,19 @@ public class TradeListener implements Listener {
             return;
         }
 
-        if (!plugin.shouldCancelOnDistance()) {
+        TradeSettings settings = plugin.getSettings();
+        if (!settings.cancelOnDistance()) {
             return;
         }
 
         Player other = session.getOtherPlayer(player);
         double newDistance = event.getTo().distance(other.getLocation());
 
-        if (newDistance > plugin.getMaxTradeDistance()) {
+        if (newDistance > settings.maxTradeDistance()) {
             // Programar cancelación después del teleport
-            plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> {
-                TradeSession currentSession = plugin.getTradeManager().getSession(player);
-                if (currentSession != null) {
-                    currentSession.cancel();
-
-                    player.sendMessage(plugin.getMessage("trade-cancelled"));
-                    if (other.isOnline()) {
-                        other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
-                    }
+            plugin.getTimingWheel().schedule(() -> {
+                if (session.cancel() && other.isOnline()) {
+                    other.sendMessage(plugin.getMessage("partner-cancelled", "{player}", player.getName()));
                 }
             }, 5);
         }
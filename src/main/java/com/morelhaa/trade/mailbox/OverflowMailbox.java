@@ -0,0 +1,328 @@
+package com.morelhaa.trade.mailbox;
+
+import cn.nukkit.Player;
+import cn.nukkit.item.Item;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.utils.InventorySimulator;
+import com.morelhaa.trade.utils.ItemCodec;
+import com.morelhaa.trade.utils.PlacementPlan;
+import com.morelhaa.trade.utils.TradeUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Buzón en disco para los items que no caben en el inventario
+ * Cada jugador tiene un fichero de solo-añadir en mailbox/<uuid>.dat;
+ * al arrancar solo se listan los nombres, los ficheros se leen al canjear
+ * Al canjear, el fichero pasa a <uuid>.redeeming y solo se borra cuando los items ya están
+ * en el inventario y el jugador se ha guardado; si algo falla antes, vuelve al buzón
+ */
+public class OverflowMailbox {
+
+    private static final String EXTENSION = ".dat";
+    private static final String REDEEMING = ".redeeming";
+
+    private final TradePlugin plugin;
+    private final File folder;
+    private final Object fileLock = new Object();
+    // Jugadores con items pendientes (para no tocar disco con el resto)
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    // Escrituras aún no hechas; shutdown() las vacía aunque Nukkit cancele la tarea asíncrona
+    private final ConcurrentLinkedQueue<PendingWrite> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Canjes leídos de disco y aún no entregados
+    private final Set<UUID> redeeming = ConcurrentHashMap.newKeySet();
+    private volatile boolean synchronous;
+
+    public OverflowMailbox(TradePlugin plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "mailbox");
+    }
+
+    public void load() {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        // Canjes que no llegaron a entregarse antes de un cierre inesperado
+        File[] interrupted = folder.listFiles((dir, name) -> name.endsWith(REDEEMING));
+        if (interrupted != null) {
+            for (File file : interrupted) {
+                String name = file.getName();
+                try {
+                    restore(UUID.fromString(name.substring(0, name.length() - REDEEMING.length())));
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("§cFichero de buzón ignorado: " + name);
+                }
+            }
+        }
+
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                pending.add(UUID.fromString(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("§cFichero de buzón ignorado: " + name);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            plugin.getLogger().info("§a" + pending.size() + " jugadores tienen items en el buzón.");
+        }
+    }
+
+    /**
+     * Escribe lo que quedaba en cola; a partir de aquí las escrituras son síncronas (el servidor se está apagando)
+     */
+    public void shutdown() {
+        synchronous = true;
+        drainWrites();
+
+        // Los canjes a medio camino vuelven al buzón
+        for (UUID owner : redeeming) {
+            restore(owner);
+        }
+        redeeming.clear();
+    }
+
+    public boolean hasPending(UUID owner) {
+        return pending.contains(owner);
+    }
+
+    /**
+     * Guarda items en el buzón de un jugador
+     * @param owner UUID del jugador
+     * @param items Items que no se pudieron entregar
+     */
+    public void deposit(UUID owner, List<Item> items) {
+        deposit(owner, items, synchronous);
+    }
+
+    /**
+     * Igual que deposit, pero el fichero queda escrito y sincronizado al volver
+     * @param owner UUID del jugador
+     * @param items Items a guardar
+     */
+    public void depositNow(UUID owner, List<Item> items) {
+        deposit(owner, items, true);
+    }
+
+    private void deposit(UUID owner, List<Item> items, boolean sync) {
+        List<Item> stacks = TradeUtils.mergeStacks(items);
+        if (stacks.isEmpty()) {
+            return;
+        }
+
+        // Los items se serializan en el hilo principal; el disco se toca fuera
+        byte[] data;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(stacks.size() * 24);
+            DataOutputStream out = new DataOutputStream(buffer);
+            for (Item item : stacks) {
+                ItemCodec.write(out, item);
+            }
+            data = buffer.toByteArray();
+        } catch (IOException e) {
+            plugin.getLogger().error("Error serializando items del buzón de " + owner + ": " + e.getMessage());
+            return;
+        }
+
+        pending.add(owner);
+
+        if (sync) {
+            append(owner, data);
+            return;
+        }
+
+        writes.offer(new PendingWrite(owner, data));
+        if (drainScheduled.compareAndSet(false, true)) {
+            plugin.getServer().getScheduler().scheduleTask(plugin, this::drainWrites, true);
+        }
+    }
+
+    private void drainWrites() {
+        drainScheduled.set(false);
+        PendingWrite write;
+        while ((write = writes.poll()) != null) {
+            append(write.owner(), write.data());
+        }
+    }
+
+    private void append(UUID owner, byte[] data) {
+        synchronized (fileLock) {
+            try (FileOutputStream out = new FileOutputStream(getFile(owner), true)) {
+                out.write(data);
+                out.getFD().sync();
+            } catch (IOException e) {
+                plugin.getLogger().error("Error guardando el buzón de " + owner + ": " + e.getMessage());
+            }
+            pending.add(owner);
+        }
+    }
+
+    /**
+     * Entrega al jugador lo que tenga en el buzón; lo que no quepa se queda guardado
+     * @param player Jugador
+     * @param quiet true para no avisar si el buzón está vacío
+     */
+    public void redeem(Player player, boolean quiet) {
+        UUID owner = player.getUniqueId();
+        if (!pending.contains(owner)) {
+            if (!quiet) {
+                player.sendMessage(plugin.getMessage("mailbox-empty"));
+            }
+            return;
+        }
+
+        // Un solo canje a la vez por jugador
+        if (!redeeming.add(owner)) {
+            return;
+        }
+
+        plugin.getServer().getScheduler().scheduleTask(plugin, () -> {
+            List<Item> items = take(owner);
+            plugin.getServer().getScheduler().scheduleTask(plugin, () -> deliver(player, items));
+        }, true);
+    }
+
+    /**
+     * Aparta el fichero del jugador como .redeeming y lo lee
+     */
+    private List<Item> take(UUID owner) {
+        List<Item> items = new ArrayList<>();
+
+        synchronized (fileLock) {
+            File file = getFile(owner);
+            File claimed = getRedeemingFile(owner);
+            pending.remove(owner);
+
+            if (!file.exists() || !file.renameTo(claimed)) {
+                return items;
+            }
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(claimed)))) {
+                while (true) {
+                    items.add(ItemCodec.read(in));
+                }
+            } catch (EOFException e) {
+                // Fin del fichero (o último registro incompleto tras un cierre inesperado)
+            } catch (IOException e) {
+                plugin.getLogger().error("Error leyendo el buzón de " + owner + ": " + e.getMessage());
+            }
+        }
+
+        return items;
+    }
+
+    /**
+     * Devuelve un canje no entregado al buzón (lo junta con lo que haya llegado mientras tanto)
+     */
+    private void restore(UUID owner) {
+        synchronized (fileLock) {
+            File claimed = getRedeemingFile(owner);
+            if (!claimed.exists()) {
+                return;
+            }
+
+            File file = getFile(owner);
+            try {
+                if (file.exists()) {
+                    try (InputStream in = new FileInputStream(claimed);
+                         FileOutputStream out = new FileOutputStream(file, true)) {
+                        in.transferTo(out);
+                        out.getFD().sync();
+                    }
+                    if (!claimed.delete()) {
+                        plugin.getLogger().warning("§cNo se pudo borrar " + claimed.getName());
+                    }
+                } else if (!claimed.renameTo(file)) {
+                    throw new IOException("no se pudo renombrar " + claimed.getName());
+                }
+                pending.add(owner);
+            } catch (IOException e) {
+                plugin.getLogger().error("Error devolviendo el canje al buzón de " + owner + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void deliver(Player player, List<Item> items) {
+        UUID owner = player.getUniqueId();
+        // El plugin se está desactivando: shutdown() ya devolvió el canje
+        if (synchronous || !redeeming.contains(owner)) {
+            return;
+        }
+
+        // Desconectado, o el fichero no se pudo leer: todo se queda en el buzón
+        if (!player.isOnline() || items.isEmpty()) {
+            restore(owner);
+            redeeming.remove(owner);
+            return;
+        }
+
+        PlacementPlan plan = InventorySimulator.snapshot(player.getInventory()).place(items);
+
+        int delivered = 0;
+        for (Item item : items) {
+            delivered += item.getCount();
+        }
+        for (Item item : plan.getOverflow()) {
+            delivered -= item.getCount();
+        }
+
+        // Lo que no quepa vuelve al buzón (escritura síncrona: el canje se borra justo después)
+        if (plan.getSlots().length > 0) {
+            plan.apply(player.getInventory());
+            player.getInventory().sendContents(player);
+        }
+        if (!plan.fits()) {
+            depositNow(owner, plan.getOverflow());
+            player.sendMessage(plugin.getMessage("mailbox-stored"));
+        }
+
+        // Con el inventario ya guardado, el canje deja de hacer falta
+        player.save();
+        synchronized (fileLock) {
+            File claimed = getRedeemingFile(owner);
+            if (claimed.exists() && !claimed.delete()) {
+                plugin.getLogger().warning("§cNo se pudo borrar " + claimed.getName());
+            }
+        }
+        redeeming.remove(owner);
+
+        if (delivered > 0) {
+            player.sendMessage(plugin.getMessage("mailbox-redeemed", "{count}", String.valueOf(delivered)));
+        }
+    }
+
+    private File getFile(UUID owner) {
+        return new File(folder, owner + EXTENSION);
+    }
+
+    private File getRedeemingFile(UUID owner) {
+        return new File(folder, owner + REDEEMING);
+    }
+
+    private record PendingWrite(UUID owner, byte[] data) {
+    }
+}
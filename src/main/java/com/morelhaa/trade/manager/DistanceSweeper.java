@@ -0,0 +1,77 @@
+package com.morelhaa.trade.manager;
+
+import cn.nukkit.Player;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.TradeSettings;
+import com.morelhaa.trade.session.TradeSession;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tarea periódica que revisa la distancia de todos los trades activos
+ * Compara distancias al cuadrado y cancela en bloque los que están fuera de rango
+ */
+public class DistanceSweeper implements Runnable {
+
+    private final TradePlugin plugin;
+    private final TradeManager manager;
+
+    public DistanceSweeper(TradePlugin plugin, TradeManager manager) {
+        this.plugin = plugin;
+        this.manager = manager;
+    }
+
+    @Override
+    public void run() {
+        TradeSettings settings = plugin.getSettings();
+        if (!settings.checkDistance() || !settings.cancelOnDistance()) {
+            return;
+        }
+
+        double maxDistanceSquared = settings.maxTradeDistanceSquared();
+        List<TradeSession> outOfRange = null;
+
+        for (TradeSession session : manager.getSessions()) {
+            Player player1 = session.getPlayer1();
+            Player player2 = session.getPlayer2();
+
+            if (player1.getLevel() != player2.getLevel()) {
+                if (outOfRange == null) {
+                    outOfRange = new ArrayList<>();
+                }
+                outOfRange.add(session);
+                continue;
+            }
+
+            double dx = player1.x - player2.x;
+            double dy = player1.y - player2.y;
+            double dz = player1.z - player2.z;
+            if (dx * dx + dy * dy + dz * dz > maxDistanceSquared) {
+                if (outOfRange == null) {
+                    outOfRange = new ArrayList<>();
+                }
+                outOfRange.add(session);
+            }
+        }
+
+        if (outOfRange == null) {
+            return;
+        }
+
+        // Se cancela fuera del recorrido porque cancel() modifica las sesiones activas
+        for (TradeSession session : outOfRange) {
+            if (!session.cancel()) {
+                continue;
+            }
+            Player player1 = session.getPlayer1();
+            Player player2 = session.getPlayer2();
+            if (player1.isOnline()) {
+                player1.sendMessage(plugin.getMessage("trade-too-far"));
+            }
+            if (player2.isOnline()) {
+                player2.sendMessage(plugin.getMessage("trade-too-far"));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.morelhaa.trade.manager;
+
+import cn.nukkit.Player;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.blacklist.BlacklistProfile;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché por jugador de los permisos propios del plugin
+ * Se rellena al entrar (o en el primer uso) y caduca tras un TTL corto,
+ * ya que Nukkit no emite ningún evento al recalcular permisos
+ */
+public class PermissionCache {
+
+    public static final String USE = "trade.use";
+    public static final String BYPASS_BLACKLIST = "trade.bypass.blacklist";
+    public static final String ADMIN = "trade.admin";
+
+    private static final PlayerPermissions NONE = new PlayerPermissions(false, false, false, null, Long.MAX_VALUE);
+
+    private final TradePlugin plugin;
+    private final Map<UUID, PlayerPermissions> entries;
+
+    public PermissionCache(TradePlugin plugin) {
+        this.plugin = plugin;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Permisos del jugador, resolviéndolos si no están en caché o han caducado
+     * @param player Jugador
+     * @return Permisos cacheados
+     */
+    public PlayerPermissions get(Player player) {
+        if (player == null) {
+            return NONE;
+        }
+
+        PlayerPermissions permissions = entries.get(player.getUniqueId());
+        if (permissions == null || System.nanoTime() - permissions.expiresAt() > 0) {
+            permissions = load(player);
+        }
+        return permissions;
+    }
+
+    /**
+     * Resuelve y guarda los permisos del jugador
+     * @param player Jugador
+     * @return Permisos recién resueltos
+     */
+    public PlayerPermissions load(Player player) {
+        BlacklistProfile profile = null;
+        for (BlacklistProfile candidate : plugin.getItemBlacklist().getProfiles()) {
+            if (player.hasPermission(candidate.getPermission())) {
+                profile = candidate;
+                break;
+            }
+        }
+
+        long ttl = plugin.getSettings().permissionCacheTtl() * 1_000_000_000L;
+        PlayerPermissions permissions = new PlayerPermissions(
+                player.hasPermission(USE),
+                player.hasPermission(BYPASS_BLACKLIST),
+                player.hasPermission(ADMIN),
+                profile,
+                System.nanoTime() + ttl
+        );
+
+        entries.put(player.getUniqueId(), permissions);
+        return permissions;
+    }
+
+    public void invalidate(Player player) {
+        entries.remove(player.getUniqueId());
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Permisos resueltos de un jugador
+     * @param blacklistProfile Perfil de blacklist asignado, o null si no tiene
+     * @param expiresAt Momento (System.nanoTime) en el que caduca la entrada
+     */
+    public record PlayerPermissions(
+            boolean canUse,
+            boolean canBypassBlacklist,
+            boolean isAdmin,
+            BlacklistProfile blacklistProfile,
+            long expiresAt
+    ) {
+    }
+}
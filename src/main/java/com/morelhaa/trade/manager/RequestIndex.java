@@ -0,0 +1,122 @@
+package com.morelhaa.trade.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Solicitudes pendientes indexadas por quien las envía y por quien las recibe
+ * Un jugador puede tener varias solicitudes entrantes y varias salientes; todas las búsquedas son O(1)
+ * Solo se usa desde el hilo principal
+ */
+public class RequestIndex {
+
+    // destino -> (remitente -> solicitud), en orden de llegada
+    private final Map<UUID, Map<UUID, TradeRequest>> incoming = new HashMap<>();
+    // remitente -> (destino -> solicitud)
+    private final Map<UUID, Map<UUID, TradeRequest>> outgoing = new HashMap<>();
+    private int size;
+
+    public void add(TradeRequest request) {
+        UUID sender = request.getSender().getUniqueId();
+        UUID target = request.getTarget().getUniqueId();
+
+        incoming.computeIfAbsent(target, key -> new LinkedHashMap<>()).put(sender, request);
+        outgoing.computeIfAbsent(sender, key -> new HashMap<>()).put(target, request);
+        size++;
+    }
+
+    /**
+     * @return Solicitud de sender a target, o null
+     */
+    public TradeRequest get(UUID sender, UUID target) {
+        Map<UUID, TradeRequest> requests = outgoing.get(sender);
+        return requests == null ? null : requests.get(target);
+    }
+
+    /**
+     * @return true si la solicitud seguía en el índice
+     */
+    public boolean remove(TradeRequest request) {
+        UUID sender = request.getSender().getUniqueId();
+        UUID target = request.getTarget().getUniqueId();
+
+        Map<UUID, TradeRequest> toTarget = incoming.get(target);
+        if (toTarget == null || toTarget.get(sender) != request) {
+            return false;
+        }
+
+        toTarget.remove(sender);
+        if (toTarget.isEmpty()) {
+            incoming.remove(target);
+        }
+
+        Map<UUID, TradeRequest> fromSender = outgoing.get(sender);
+        fromSender.remove(target);
+        if (fromSender.isEmpty()) {
+            outgoing.remove(sender);
+        }
+
+        size--;
+        return true;
+    }
+
+    /**
+     * @return Solicitudes recibidas por el jugador, de la más vieja a la más nueva
+     */
+    public Collection<TradeRequest> incoming(UUID target) {
+        Map<UUID, TradeRequest> requests = incoming.get(target);
+        return requests == null ? Collections.emptyList() : requests.values();
+    }
+
+    public int incomingCount(UUID target) {
+        Map<UUID, TradeRequest> requests = incoming.get(target);
+        return requests == null ? 0 : requests.size();
+    }
+
+    /**
+     * Quita todas las solicitudes en las que participa el jugador (enviadas o recibidas)
+     * @return Solicitudes quitadas
+     */
+    public List<TradeRequest> removeAll(UUID player) {
+        List<TradeRequest> removed = new ArrayList<>();
+
+        Map<UUID, TradeRequest> received = incoming.get(player);
+        if (received != null) {
+            removed.addAll(received.values());
+        }
+        Map<UUID, TradeRequest> sent = outgoing.get(player);
+        if (sent != null) {
+            removed.addAll(sent.values());
+        }
+
+        for (TradeRequest request : removed) {
+            remove(request);
+        }
+        return removed;
+    }
+
+    /**
+     * Vacía el índice
+     * @return Todas las solicitudes que había
+     */
+    public List<TradeRequest> clear() {
+        List<TradeRequest> all = new ArrayList<>(size);
+        for (Map<UUID, TradeRequest> requests : incoming.values()) {
+            all.addAll(requests.values());
+        }
+        incoming.clear();
+        outgoing.clear();
+        size = 0;
+        return all;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,79 @@
+package com.morelhaa.trade.manager;
+
+import cn.nukkit.Player;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.TradeSettings;
+import com.morelhaa.trade.utils.TokenBucketMap;
+
+import java.util.UUID;
+
+/**
+ * Límite de solicitudes de trade: un cubo de tokens por remitente y otro por pareja remitente -> destino
+ * Al vaciarse un cubo se avisa una sola vez; el resto de intentos se descartan sin enviar nada
+ * Solo se usa desde el hilo principal
+ */
+public class RequestRateLimiter {
+
+    private final TradePlugin plugin;
+    private final TokenBucketMap senders = new TokenBucketMap();
+    private final TokenBucketMap pairs = new TokenBucketMap();
+
+    public RequestRateLimiter(TradePlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Gasta un token del cubo del remitente; se llama antes de cualquier otra comprobación
+     * @return true si puede seguir
+     */
+    public boolean tryAcquireSender(Player sender) {
+        TradeSettings settings = plugin.getSettings();
+        if (!settings.rateLimitEnabled()) {
+            return true;
+        }
+
+        // Se leen en cada llamada para que /reload los cambie sin más
+        senders.configure(settings.rateLimitSenderBurst(), settings.rateLimitSenderPerMinute());
+
+        UUID from = sender.getUniqueId();
+        return tryAcquire(senders, sender, from.getMostSignificantBits(), from.getLeastSignificantBits());
+    }
+
+    /**
+     * Gasta un token del cubo de la pareja; solo cuando la solicitud se va a crear de verdad
+     * @return true si puede enviarse
+     */
+    public boolean tryAcquirePair(Player sender, Player target) {
+        TradeSettings settings = plugin.getSettings();
+        if (!settings.rateLimitEnabled()) {
+            return true;
+        }
+
+        pairs.configure(settings.rateLimitPairBurst(), settings.rateLimitPairPerMinute());
+
+        UUID from = sender.getUniqueId();
+        UUID to = target.getUniqueId();
+        // Mezcla con dirección (A -> B no es B -> A); una colisión solo haría compartir cubo
+        long pairHi = from.getMostSignificantBits() ^ Long.rotateLeft(to.getLeastSignificantBits(), 21);
+        long pairLo = from.getLeastSignificantBits() ^ Long.rotateLeft(to.getMostSignificantBits(), 43);
+        return tryAcquire(pairs, sender, pairHi, pairLo);
+    }
+
+    private boolean tryAcquire(TokenBucketMap buckets, Player sender, long hi, long lo) {
+        long now = System.nanoTime();
+        if (buckets.available(hi, lo, now) < 1) {
+            if (buckets.markWarned(hi, lo)) {
+                sender.sendMessage(plugin.getMessage("request-rate-limited"));
+            }
+            return false;
+        }
+
+        buckets.take(hi, lo, now);
+        return true;
+    }
+
+    public void clear() {
+        senders.clear();
+        pairs.clear();
+    }
+}
@@ -5,6 +5,8 @@ import cn.nukkit.form.element.ElementButton;
 import cn.nukkit.form.window.FormWindowSimple;
 import cn.nukkit.level.Sound;
 import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.TradeSettings;
+import com.morelhaa.trade.scheduler.TimingWheel;
 import com.morelhaa.trade.session.TradeSession;
 import com.morelhaa.trade.utils.TradeUtils;
 
@@ -15,15 +17,85 @@ public class TradeManager {
 
     private final TradePlugin plugin;
     private final Map<UUID, TradeSession> activeSessions;
-    private final Map<UUID, TradeRequest> pendingRequests;
+    // Cada sesión una sola vez (activeSessions la guarda por cada jugador)
+    private final Set<TradeSession> sessions;
+    // Solicitudes pendientes por remitente y por destino; solo se usan desde el hilo principal
+    private final RequestIndex requests;
+    private final Map<UUID, OpenForm> openForms;
+    private final RequestRateLimiter rateLimiter;
+    private final DistanceSweeper distanceSweeper;
+    // Sesiones con slots pendientes de enviar; solo se usa desde el hilo principal
+    private final Set<TradeSession> dirtySessions;
+    private boolean flushScheduled;
+    private TimingWheel.Timeout sweeperTimeout;
 
     public TradeManager(TradePlugin plugin) {
         this.plugin = plugin;
         this.activeSessions = new ConcurrentHashMap<>();
-        this.pendingRequests = new ConcurrentHashMap<>();
+        this.sessions = ConcurrentHashMap.newKeySet();
+        this.requests = new RequestIndex();
+        this.openForms = new HashMap<>();
+        this.rateLimiter = new RequestRateLimiter(plugin);
+        this.distanceSweeper = new DistanceSweeper(plugin, this);
+        this.dirtySessions = new LinkedHashSet<>();
+        scheduleDistanceSweeper();
+    }
+
+    /**
+     * Programa (o reprograma tras recargar la config) la revisión de distancias
+     */
+    public void scheduleDistanceSweeper() {
+        if (sweeperTimeout != null) {
+            sweeperTimeout.cancel();
+        }
+        sweeperTimeout = plugin.getTimingWheel().schedule(this::runDistanceSweeper,
+                plugin.getSettings().distanceCheckInterval());
+    }
+
+    private void runDistanceSweeper() {
+        try {
+            distanceSweeper.run();
+        } finally {
+            // Un fallo en una pasada no puede parar las siguientes
+            sweeperTimeout = plugin.getTimingWheel().schedule(this::runDistanceSweeper,
+                    plugin.getSettings().distanceCheckInterval());
+        }
+    }
+
+    /**
+     * Apunta una sesión para enviar sus slots cambiados (y anotar sus ofertas) en el siguiente tick
+     * @param session Sesión con cambios
+     */
+    public void markDirty(TradeSession session) {
+        dirtySessions.add(session);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            plugin.getTimingWheel().schedule(this::flushDirtySessions, 1);
+        }
+    }
+
+    private void flushDirtySessions() {
+        flushScheduled = false;
+        if (dirtySessions.isEmpty()) {
+            return;
+        }
+
+        List<TradeSession> batch = new ArrayList<>(dirtySessions);
+        dirtySessions.clear();
+        for (TradeSession session : batch) {
+            session.checkpointOffers();
+            session.flushDirtySlots();
+        }
     }
 
     public boolean sendRequest(Player sender, Player target) {
+        TradeSettings settings = plugin.getSettings();
+
+        // Antes de cualquier mensaje: el spam se descarta sin enviar paquetes
+        if (!rateLimiter.tryAcquireSender(sender)) {
+            return false;
+        }
+
         if (sender.equals(target)) {
             sender.sendMessage(plugin.getMessage("cannot-trade-yourself"));
             return false;
@@ -34,7 +106,7 @@ public class TradeManager {
             return false;
         }
 
-        if (!sender.hasPermission("trade.use")) {
+        if (!plugin.getPermissionCache().get(sender).canUse()) {
             sender.sendMessage(plugin.getMessage("no-permission"));
             return false;
         }
@@ -49,80 +121,131 @@ public class TradeManager {
             return false;
         }
 
-        if (hasPendingRequest(target)) {
-            sender.sendMessage(plugin.getMessage("already-sent-request"));
-            return false;
-        }
+        UUID senderUuid = sender.getUniqueId();
+        UUID targetUuid = target.getUniqueId();
 
-        if (hasPendingRequest(sender)) {
-            sender.sendMessage(plugin.getMessage("pending-request"));
+        if (requests.get(senderUuid, targetUuid) != null) {
+            sender.sendMessage(plugin.getMessage("already-sent-request"));
             return false;
         }
 
         double distance = TradeUtils.getDistance(sender, target);
-        if (distance > plugin.getMaxTradeDistance()) {
+        if (distance > settings.maxTradeDistance()) {
             sender.sendMessage(plugin.getMessage("player-not-found"));
             return false;
         }
 
-        TradeRequest request = new TradeRequest(sender, target);
-        pendingRequests.put(target.getUniqueId(), request);
-
-        int timeout = plugin.getRequestTimeout();
-        int taskId = plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> {
-            expireRequest(target.getUniqueId());
-        }, timeout * 20).getTaskId();
+        // El otro ya nos pidió trade: se responde a esa solicitud, no se cruza otra
+        if (requests.get(targetUuid, senderUuid) != null) {
+            sender.sendMessage(plugin.getMessage("request-incoming-pending", "{player}", target.getName()));
+            return false;
+        }
 
-        request.setExpirationTaskId(taskId);
+        if (!rateLimiter.tryAcquirePair(sender, target)) {
+            return false;
+        }
 
-        sendRequestForm(target, sender);
+        TradeRequest request = new TradeRequest(sender, target, settings.requestTimeout());
+        requests.add(request);
+        request.setExpiration(plugin.getTimingWheel().schedule(
+                () -> expireRequest(request), settings.requestTimeout() * 20));
 
         sender.sendMessage(plugin.getMessage("request-sent", "{player}", target.getName()));
         target.sendMessage(plugin.getMessage("request-received", "{player}", sender.getName()));
 
-        if (plugin.areSoundsEnabled()) {
+        // Con un formulario ya abierto no se le tapa: las demás esperan en la bandeja
+        if (openForms.containsKey(targetUuid)) {
+            target.sendMessage(plugin.getMessage("request-inbox-hint",
+                    "{count}", String.valueOf(requests.incomingCount(targetUuid))));
+        } else {
+            sendRequestForm(target, request);
+        }
+
+        if (settings.soundsEnabled()) {
             TradeUtils.playSound(target, Sound.RANDOM_ORB);
         }
 
         return true;
     }
 
-    private void sendRequestForm(Player target, Player sender) {
-        FormWindowSimple form = new FormWindowSimple(
-                "§6Solicitud de Trade",
-                "§e" + sender.getName() + "§r te ha enviado una solicitud de intercambio.\n\n" +
-                        "§7¿Deseas aceptar?"
-        );
+    private void sendRequestForm(Player target, TradeRequest request) {
+        FormWindowSimple form = plugin.getSettings().requestForm().create(request.getSender().getName());
+        int formId = target.showFormWindow(form);
+        openForms.put(target.getUniqueId(), new OpenForm(formId, request, null));
+    }
 
-        form.addButton(new ElementButton("§aAceptar"));
-        form.addButton(new ElementButton("§cRechazar"));
+    /**
+     * Muestra las solicitudes recibidas; con una sola se abre directamente
+     * @param player Jugador
+     */
+    public void openInbox(Player player) {
+        List<TradeRequest> inbox = new ArrayList<>(requests.incoming(player.getUniqueId()));
 
-        int formId = target.showFormWindow(form);
-        TradeRequest request = pendingRequests.get(target.getUniqueId());
-        if (request != null) {
-            request.setFormId(formId);
+        if (inbox.isEmpty()) {
+            player.sendMessage(plugin.getMessage("request-inbox-empty"));
+            return;
+        }
+
+        if (inbox.size() == 1) {
+            sendRequestForm(player, inbox.get(0));
+            return;
+        }
+
+        FormWindowSimple form = new FormWindowSimple(
+                "§6Solicitudes de Trade",
+                "§7Tienes §e" + inbox.size() + "§7 solicitudes pendientes. Elige una:"
+        );
+        for (TradeRequest request : inbox) {
+            form.addButton(new ElementButton("§e" + request.getSender().getName()
+                    + "\n§7Expira en " + request.getSecondsLeft() + "s"));
         }
+
+        int formId = player.showFormWindow(form);
+        openForms.put(player.getUniqueId(), new OpenForm(formId, null, inbox));
     }
 
     public void handleFormResponse(Player player, int formId, int response) {
-        TradeRequest request = pendingRequests.get(player.getUniqueId());
+        OpenForm form = openForms.get(player.getUniqueId());
 
-        if (request == null || request.getFormId() != formId) {
+        if (form == null || form.formId() != formId) {
             return;
         }
 
-        Player sender = request.getSender();
+        openForms.remove(player.getUniqueId());
 
-        pendingRequests.remove(player.getUniqueId());
+        if (form.inbox() != null) {
+            if (response >= 0 && response < form.inbox().size()) {
+                TradeRequest request = form.inbox().get(response);
+                // Puede haber expirado mientras el jugador elegía
+                if (requests.get(request.getSender().getUniqueId(), player.getUniqueId()) == request) {
+                    sendRequestForm(player, request);
+                } else {
+                    player.sendMessage(plugin.getMessage("request-expired"));
+                }
+            }
+            return;
+        }
 
-        if (request.getExpirationTaskId() != -1) {
-            plugin.getServer().getScheduler().cancelTask(request.getExpirationTaskId());
+        TradeRequest request = form.request();
+        if (!requests.remove(request)) {
+            return;
         }
+        request.cancelExpiration();
 
         if (response == 0) {
-            acceptRequest(sender, player);
+            acceptRequest(request.getSender(), player);
         } else {
-            rejectRequest(sender, player);
+            rejectRequest(request.getSender(), player);
+        }
+    }
+
+    /**
+     * El jugador cerró un formulario sin responder; la solicitud sigue pendiente
+     */
+    public void handleFormClosed(Player player, int formId) {
+        OpenForm form = openForms.get(player.getUniqueId());
+        if (form != null && form.formId() == formId) {
+            openForms.remove(player.getUniqueId());
         }
     }
 
@@ -141,7 +264,7 @@ public class TradeManager {
         }
 
         double distance = TradeUtils.getDistance(sender, target);
-        if (distance > plugin.getMaxTradeDistance()) {
+        if (distance > plugin.getSettings().maxTradeDistance()) {
             sender.sendMessage(plugin.getMessage("player-not-found"));
             target.sendMessage(plugin.getMessage("player-not-found"));
             return;
@@ -152,6 +275,7 @@ public class TradeManager {
         if (session.start()) {
             activeSessions.put(sender.getUniqueId(), session);
             activeSessions.put(target.getUniqueId(), session);
+            sessions.add(session);
         } else {
             sender.sendMessage(plugin.getMessage("trade-cancelled"));
             target.sendMessage(plugin.getMessage("trade-cancelled"));
@@ -163,44 +287,55 @@ public class TradeManager {
             sender.sendMessage(plugin.getMessage("request-cancelled"));
         }
 
-        if (plugin.areSoundsEnabled()) {
+        if (plugin.getSettings().soundsEnabled()) {
             TradeUtils.playSound(target, Sound.RANDOM_BREAK);
         }
+
+        int remaining = requests.incomingCount(target.getUniqueId());
+        if (remaining > 0) {
+            target.sendMessage(plugin.getMessage("request-inbox-hint", "{count}", String.valueOf(remaining)));
+        }
     }
 
-    private void expireRequest(UUID targetUuid) {
-        TradeRequest request = pendingRequests.remove(targetUuid);
+    private void expireRequest(TradeRequest request) {
+        if (!requests.remove(request)) {
+            return;
+        }
 
-        if (request != null) {
-            Player sender = request.getSender();
-            Player target = request.getTarget();
+        Player sender = request.getSender();
+        Player target = request.getTarget();
 
-            if (sender != null && sender.isOnline()) {
-                sender.sendMessage(plugin.getMessage("request-expired"));
-            }
+        if (sender != null && sender.isOnline()) {
+            sender.sendMessage(plugin.getMessage("request-expired"));
+        }
 
-            if (target != null && target.isOnline()) {
-                target.sendMessage(plugin.getMessage("request-expired"));
-            }
+        if (target != null && target.isOnline()) {
+            target.sendMessage(plugin.getMessage("request-expired"));
         }
     }
 
+    /**
+     * Cancela todas las solicitudes enviadas y recibidas por el jugador
+     * @param player Jugador
+     */
     public void cancelRequest(Player player) {
-        TradeRequest request = pendingRequests.remove(player.getUniqueId());
+        openForms.remove(player.getUniqueId());
 
-        if (request != null) {
-            // Cancelar tarea de expiración
-            if (request.getExpirationTaskId() != -1) {
-                plugin.getServer().getScheduler().cancelTask(request.getExpirationTaskId());
-            }
+        List<TradeRequest> removed = requests.removeAll(player.getUniqueId());
+        if (removed.isEmpty()) {
+            return;
+        }
 
-            Player sender = request.getSender();
-            if (sender != null && sender.isOnline()) {
-                sender.sendMessage(plugin.getMessage("request-cancelled"));
-            }
+        for (TradeRequest request : removed) {
+            request.cancelExpiration();
 
-            player.sendMessage(plugin.getMessage("request-cancelled"));
+            Player other = request.getSender().equals(player) ? request.getTarget() : request.getSender();
+            if (other != null && other.isOnline()) {
+                other.sendMessage(plugin.getMessage("request-cancelled"));
+            }
         }
+
+        player.sendMessage(plugin.getMessage("request-cancelled"));
     }
 
     public TradeSession getSession(Player player) {
@@ -211,6 +346,7 @@ public class TradeManager {
         if (session != null) {
             activeSessions.remove(session.getPlayer1().getUniqueId());
             activeSessions.remove(session.getPlayer2().getUniqueId());
+            sessions.remove(session);
         }
     }
 
@@ -222,71 +358,39 @@ public class TradeManager {
     }
 
     public void cancelAllTrades() {
-        Set<TradeSession> sessions = new HashSet<>(activeSessions.values());
-        for (TradeSession session : sessions) {
+        for (TradeSession session : new ArrayList<>(sessions)) {
             session.cancel();
         }
         activeSessions.clear();
-        for (TradeRequest request : pendingRequests.values()) {
-            if (request.getExpirationTaskId() != -1) {
-                plugin.getServer().getScheduler().cancelTask(request.getExpirationTaskId());
-            }
+        sessions.clear();
+        dirtySessions.clear();
+        for (TradeRequest request : requests.clear()) {
+            request.cancelExpiration();
         }
-        pendingRequests.clear();
+        openForms.clear();
+        rateLimiter.clear();
     }
 
     public boolean isInTrade(Player player) {
         return activeSessions.containsKey(player.getUniqueId());
     }
     public boolean hasPendingRequest(Player player) {
-        return pendingRequests.containsKey(player.getUniqueId());
+        return requests.incomingCount(player.getUniqueId()) > 0;
+    }
+    public Collection<TradeSession> getSessions() {
+        return sessions;
     }
     public int getActiveTradesCount() {
-        return activeSessions.size() / 2;
+        return sessions.size();
     }
 
     public int getPendingRequestsCount() {
-        return pendingRequests.size();
+        return requests.size();
     }
-    private static class TradeRequest {
-        private final Player sender;
-        private final Player target;
-        private final long timestamp;
-        private int expirationTaskId = -1;
-        private int formId = -1;
 
-        public TradeRequest(Player sender, Player target) {
-            this.sender = sender;
-            this.target = target;
-            this.timestamp = System.currentTimeMillis();
-        }
-
-        public Player getSender() {
-            return sender;
-        }
-
-        public Player getTarget() {
-            return target;
-        }
-
-        public long getTimestamp() {
-            return timestamp;
-        }
-
-        public int getExpirationTaskId() {
-            return expirationTaskId;
-        }
-
-        public void setExpirationTaskId(int taskId) {
-            this.expirationTaskId = taskId;
-        }
-
-        public int getFormId() {
-            return formId;
-        }
-
-        public void setFormId(int formId) {
-            this.formId = formId;
-        }
+    /**
+     * Formulario que el jugador tiene abierto: una solicitud concreta o la bandeja
+     */
+    private record OpenForm(int formId, TradeRequest request, List<TradeRequest> inbox) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package com.morelhaa.trade.manager;
+
+import cn.nukkit.Player;
+import com.morelhaa.trade.scheduler.TimingWheel;
+
+/**
+ * Solicitud de trade pendiente de respuesta
+ */
+public class TradeRequest {
+
+    private final Player sender;
+    private final Player target;
+    private final long timestamp;
+    private final long expiresAt;
+    private TimingWheel.Timeout expiration;
+
+    public TradeRequest(Player sender, Player target, int timeoutSeconds) {
+        this.sender = sender;
+        this.target = target;
+        this.timestamp = System.currentTimeMillis();
+        this.expiresAt = timestamp + timeoutSeconds * 1000L;
+    }
+
+    public Player getSender() {
+        return sender;
+    }
+
+    public Player getTarget() {
+        return target;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Segundos que le quedan antes de expirar
+     */
+    public int getSecondsLeft() {
+        return (int) Math.max(0, (expiresAt - System.currentTimeMillis() + 999) / 1000);
+    }
+
+    public void setExpiration(TimingWheel.Timeout expiration) {
+        this.expiration = expiration;
+    }
+
+    public void cancelExpiration() {
+        if (expiration != null) {
+            expiration.cancel();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.morelhaa.trade.scheduler;
+
+import cn.nukkit.plugin.PluginLogger;
+
+/**
+ * Rueda de tiempos con hash: un solo Runnable repetido cada tick ejecuta todas las tareas diferidas del plugin
+ * Programar y cancelar son O(1) a través del Timeout devuelto
+ * Solo se usa desde el hilo principal
+ */
+public final class TimingWheel implements Runnable {
+
+    private static final int WHEEL_BITS = 9;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final PluginLogger logger;
+    // Cada cubeta es una lista doblemente enlazada de Timeout
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private long tick;
+    private int pending;
+
+    public TimingWheel(PluginLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * @param task Tarea a ejecutar en el hilo principal
+     * @param delayTicks Ticks de espera (mínimo 1)
+     * @return Handle para cancelarla
+     */
+    public Timeout schedule(Runnable task, int delayTicks) {
+        Timeout timeout = new Timeout(this, task, tick + Math.max(1, delayTicks));
+        int slot = (int) (timeout.deadline & MASK);
+
+        // Se inserta al principio: si la cubeta se está recorriendo ahora, no se visita en esta pasada
+        Timeout head = buckets[slot];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[slot] = timeout;
+        pending++;
+        return timeout;
+    }
+
+    /**
+     * Avanza un tick y ejecuta lo que vence
+     */
+    @Override
+    public void run() {
+        tick++;
+        int slot = (int) (tick & MASK);
+
+        Timeout timeout = buckets[slot];
+        while (timeout != null) {
+            // Se guarda antes de ejecutar; un Timeout quitado conserva su next, así que sigue siendo válido
+            Timeout next = timeout.next;
+
+            if (timeout.active && timeout.deadline <= tick) {
+                unlink(timeout);
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error en una tarea programada del plugin", e);
+                }
+            }
+
+            timeout = next;
+        }
+    }
+
+    private boolean cancel(Timeout timeout) {
+        if (!timeout.active) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.active = false;
+        pending--;
+
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.deadline & MASK)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+    }
+
+    /**
+     * @return Tareas programadas que aún no se han ejecutado
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Tarea programada en la rueda
+     */
+    public static final class Timeout {
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private Timeout prev;
+        private Timeout next;
+        private boolean active = true;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true si estaba pendiente y ya no se ejecutará
+         */
+        public boolean cancel() {
+            return wheel.cancel(this);
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
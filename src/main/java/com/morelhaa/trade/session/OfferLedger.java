@@ -0,0 +1,66 @@
+package com.morelhaa.trade.session;
+
+import cn.nukkit.item.Item;
+
+/**
+ * Registro de lo ofrecido por cada lado, alimentado por los eventos de clic
+ * Es solo una pista: al completar manda el contenido real de la ventana (ver OfferSnapshot)
+ * Cada cambio sube la versión; un "listo" solo vale para la versión en la que se pulsó
+ */
+public final class OfferLedger {
+
+    private final Item[] player1Slots;
+    private final Item[] player2Slots;
+    private int player1Count;
+    private int player2Count;
+    private long version;
+
+    public OfferLedger(int size) {
+        this.player1Slots = new Item[size];
+        this.player2Slots = new Item[size];
+    }
+
+    /**
+     * Guarda (o quita si es aire) el item de un slot, sin clonarlo
+     * @param isPlayer1 Lado que cambia
+     * @param slot Slot de la GUI
+     * @param item Item nuevo, o null/aire para vaciar
+     * @return Versión nueva
+     */
+    public long set(boolean isPlayer1, int slot, Item item) {
+        Item[] slots = isPlayer1 ? player1Slots : player2Slots;
+        boolean empty = item == null || item.getId() == 0;
+        boolean wasEmpty = slots[slot] == null;
+
+        slots[slot] = empty ? null : item;
+
+        int delta = (empty ? 0 : 1) - (wasEmpty ? 0 : 1);
+        if (isPlayer1) {
+            player1Count += delta;
+        } else {
+            player2Count += delta;
+        }
+        return ++version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCount(boolean isPlayer1) {
+        return isPlayer1 ? player1Count : player2Count;
+    }
+
+    /**
+     * @param isPlayer1 Lado
+     * @param slot Slot de la GUI
+     * @param item Item que hay realmente en la ventana
+     * @return true si el registro tiene ese mismo item y cantidad en ese slot
+     */
+    public boolean matches(boolean isPlayer1, int slot, Item item) {
+        Item offered = (isPlayer1 ? player1Slots : player2Slots)[slot];
+        return offered != null
+                && offered.getCount() == item.getCount()
+                && offered.equals(item, true, true);
+    }
+}
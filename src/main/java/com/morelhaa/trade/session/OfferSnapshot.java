@@ -0,0 +1,62 @@
+package com.morelhaa.trade.session;
+
+import cn.nukkit.inventory.Inventory;
+import cn.nukkit.item.Item;
+import com.morelhaa.trade.config.SlotLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ofertas leídas directamente de la ventana del trade, en una sola pasada
+ * Es la fuente de verdad al completar o cancelar; el registro de clics solo se contrasta
+ * @param player1Items Clones de lo que hay en la zona del jugador 1
+ * @param player2Items Clones de lo que hay en la zona del jugador 2
+ * @param matchesLedger true si coincide slot a slot con el registro de clics
+ */
+public record OfferSnapshot(List<Item> player1Items, List<Item> player2Items, boolean matchesLedger) {
+
+    /**
+     * @param inventory Ventana del trade
+     * @param layout Roles de los slots
+     * @param ledger Registro de clics con el que se contrasta
+     * @return Foto inmutable de ambas ofertas
+     */
+    public static OfferSnapshot read(Inventory inventory, SlotLayout layout, OfferLedger ledger) {
+        List<Item> items1 = new ArrayList<>();
+        List<Item> items2 = new ArrayList<>();
+        boolean matches = true;
+
+        for (Map.Entry<Integer, Item> entry : inventory.getContents().entrySet()) {
+            int slot = entry.getKey();
+            Item item = entry.getValue();
+            if (item == null || item.getId() == 0 || item.getCount() <= 0) {
+                continue;
+            }
+
+            byte role = layout.roleOf(slot);
+            if (role == SlotLayout.LEFT_OFFER) {
+                items1.add(item.clone());
+                matches &= ledger.matches(true, slot, item);
+            } else if (role == SlotLayout.RIGHT_OFFER) {
+                items2.add(item.clone());
+                matches &= ledger.matches(false, slot, item);
+            }
+        }
+
+        // Slots que el registro cree ocupados pero la ventana no
+        matches &= items1.size() == ledger.getCount(true) && items2.size() == ledger.getCount(false);
+
+        return new OfferSnapshot(
+                Collections.unmodifiableList(items1),
+                Collections.unmodifiableList(items2),
+                matches
+        );
+    }
+
+    public boolean isEmpty() {
+        return player1Items.isEmpty() && player2Items.isEmpty();
+    }
+}
@@ -1,52 +1,56 @@
 package com.morelhaa.trade.session;
 
 import cn.nukkit.Player;
-import cn.nukkit.block.Block;
-import cn.nukkit.blockentity.BlockEntity;
-import cn.nukkit.blockentity.BlockEntityChest;
-import cn.nukkit.inventory.DoubleChestInventory;
 import cn.nukkit.item.Item;
 import cn.nukkit.level.Sound;
-import cn.nukkit.math.Vector3;
-import cn.nukkit.nbt.NBTIO;
-import cn.nukkit.nbt.tag.CompoundTag;
-import cn.nukkit.nbt.tag.IntTag;
-import cn.nukkit.nbt.tag.ListTag;
-import cn.nukkit.nbt.tag.StringTag;
 import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.SlotLayout;
+import com.morelhaa.trade.config.TradeSettings;
+import com.morelhaa.trade.history.TradeRecord;
+import com.morelhaa.trade.inventory.TradeGuiTemplate;
+import com.morelhaa.trade.inventory.VirtualChestInventory;
+import com.morelhaa.trade.journal.TradeJournal;
+import com.morelhaa.trade.manager.PermissionCache.PlayerPermissions;
+import com.morelhaa.trade.scheduler.TimingWheel;
+import com.morelhaa.trade.utils.InventorySimulator;
+import com.morelhaa.trade.utils.PlacementPlan;
 import com.morelhaa.trade.utils.TradeUtils;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TradeSession {
 
     private final TradePlugin plugin;
     private final Player player1;
     private final Player player2;
-    private DoubleChestInventory inventory;
-    private BlockEntityChest chest1;
-    private BlockEntityChest chest2;
-    private boolean player1Ready;
-    private boolean player2Ready;
-    private final Map<Integer, Item> player1Items;
-    private final Map<Integer, Item> player2Items;
-    private boolean completed;
-    private boolean cancelled;
-    private int completionTaskId = -1;
+    // Resueltos una vez al empezar (bypass y perfil de blacklist)
+    private PlayerPermissions permissions1;
+    private PlayerPermissions permissions2;
+    private VirtualChestInventory inventory;
+    private Item player1ReadyButton;
+    private Item player2ReadyButton;
+    // Botón mostrado ahora (los botones son instancias precreadas, basta comparar la referencia)
+    private Item shownReadyButton;
+    // Un bit por slot cambiado y aún no enviado (la GUI tiene 54 slots, cabe en un long)
+    private long dirtySlots;
+    private final OfferLedger offers;
+    // Versión de las ofertas cuando cada jugador pulsó listo (-1 si no está listo)
+    private long player1ReadyVersion = -1;
+    private long player2ReadyVersion = -1;
+    // Ciclo de vida; complete y cancel compiten por CAS y solo uno puede ganar
+    private final AtomicReference<TradeState> state;
+    private TimingWheel.Timeout completionTimeout;
+    // Entrada del diario de trades abierta para esta sesión (-1 si no hay)
+    private long journalEntry = -1;
+    // Las ofertas cambiaron desde la última vez que se anotaron en el diario
+    private boolean offersChanged;
 
     public TradeSession(TradePlugin plugin, Player player1, Player player2) {
         this.plugin = plugin;
         this.player1 = player1;
         this.player2 = player2;
-        this.player1Ready = false;
-        this.player2Ready = false;
-        this.player1Items = new HashMap<>();
-        this.player2Items = new HashMap<>();
-        this.completed = false;
-        this.cancelled = false;
+        this.offers = new OfferLedger(TradeSettings.GUI_SIZE);
+        this.state = new AtomicReference<>(TradeState.OPEN);
     }
 
     public boolean start() {
@@ -56,12 +60,16 @@ public class TradeSession {
         if (!createTradeInventory()) {
             return false;
         }
-        setupSeparators();
+
+        permissions1 = plugin.getPermissionCache().get(player1);
+        permissions2 = plugin.getPermissionCache().get(player2);
+
+        setupLayout();
 
         player1.addWindow(inventory);
         player2.addWindow(inventory);
 
-        if (plugin.areSoundsEnabled()) {
+        if (plugin.getSettings().soundsEnabled()) {
             TradeUtils.playSoundToPlayers(player1, player2, Sound.RANDOM_ORB);
         }
 
@@ -72,141 +80,208 @@ public class TradeSession {
     }
 
     private boolean createTradeInventory() {
-        try {
-            Vector3 pos1 = player1.getPosition().add(0, -5, 0);
-            Vector3 pos2 = pos1.add(1, 0, 0);
-
-            CompoundTag nbt1 = getChestNBT(pos1, "§8Trade con " + player2.getName());
-            CompoundTag nbt2 = getChestNBT(pos2, "§8Trade con " + player1.getName());
+        // Inventario virtual: no se toca ningún chunk
+        inventory = new VirtualChestInventory(plugin);
+        inventory.setTitle(player1, "§8Trade con " + player2.getName());
+        inventory.setTitle(player2, "§8Trade con " + player1.getName());
+        return true;
+    }
 
-            chest1 = new BlockEntityChest(player1.getLevel().getChunk((int) pos1.x >> 4, (int) pos1.z >> 4), nbt1);
-            chest2 = new BlockEntityChest(player1.getLevel().getChunk((int) pos2.x >> 4, (int) pos2.z >> 4), nbt2);
+    private void setupLayout() {
+        TradeGuiTemplate template = plugin.getSettings().guiTemplate();
 
-            inventory = new DoubleChestInventory(chest1, chest2);
+        // Botones de "uno listo" con el nombre ya puesto, para no crear NBT en cada clic
+        player1ReadyButton = template.createOneReadyButton(player1.getName());
+        player2ReadyButton = template.createOneReadyButton(player2.getName());
 
-            return true;
-        } catch (Exception e) {
-            plugin.getLogger().error("Error creando inventario de trade: " + e.getMessage());
-            return false;
-        }
+        // Separadores y botón "ninguno listo" de una sola vez
+        inventory.setContents(template.getContents());
+        shownReadyButton = template.getNoneReadyButton();
     }
 
-    private CompoundTag getChestNBT(Vector3 pos, String customName) {
-        CompoundTag nbt = new CompoundTag()
-                .putString("id", BlockEntity.CHEST)
-                .putInt("x", (int) pos.x)
-                .putInt("y", (int) pos.y)
-                .putInt("z", (int) pos.z);
+    private void updateReadyButton() {
+        TradeSettings settings = plugin.getSettings();
+        TradeGuiTemplate template = settings.guiTemplate();
+
+        boolean player1Ready = isReady(true);
+        boolean player2Ready = isReady(false);
 
-        if (customName != null) {
-            nbt.putString("CustomName", customName);
+        Item button;
+        if (!player1Ready && !player2Ready) {
+            button = template.getNoneReadyButton();
+        } else if (player1Ready && player2Ready) {
+            button = template.getBothReadyButton();
+        } else {
+            button = player1Ready ? player1ReadyButton : player2ReadyButton;
         }
 
-        return nbt;
+        if (button == shownReadyButton) {
+            return;
+        }
+        shownReadyButton = button;
+        setSlot(settings.readyButtonSlot(), button);
     }
 
-    private void setupSeparators() {
-        Item glass = Item.get(95, 7);
-        glass.setCustomName(plugin.getConfig().getString("messages.separator-name", "§7═══════════════"));
-
-        List<Integer> separatorSlots = plugin.getConfig().getIntegerList("gui.separator-slots");
-        for (int slot : separatorSlots) {
-            inventory.setItem(slot, glass.clone());
+    /**
+     * Cambia un slot sin enviarlo; el envío se agrupa en el siguiente tick
+     */
+    private void setSlot(int slot, Item item) {
+        inventory.setItem(slot, item, false);
+        if (dirtySlots == 0) {
+            plugin.getTradeManager().markDirty(this);
         }
-
-        int readySlot = plugin.getReadyButtonSlot();
-        updateReadyButton();
+        dirtySlots |= 1L << slot;
     }
 
-    private void updateReadyButton() {
-        int readySlot = plugin.getReadyButtonSlot();
+    /**
+     * Envía a los dos jugadores los slots cambiados desde el último tick, uno por slot
+     */
+    public void flushDirtySlots() {
+        long dirty = dirtySlots;
+        dirtySlots = 0;
 
-        Item button;
-        if (!player1Ready && !player2Ready) {
-            button = Item.get(95, 14);
-            button.setCustomName("§cNinguno listo");
-        } else if (player1Ready && player2Ready) {
-            button = Item.get(95, 5);
-            button.setCustomName("§a¡Ambos listos!");
-        } else {
-            button = Item.get(95, 4);
-            String readyPlayer = player1Ready ? player1.getName() : player2.getName();
-            button.setCustomName("§e-" + readyPlayer + " está listo");
+        if (dirty == 0 || !state.get().isEditable() || inventory.getViewers().isEmpty()) {
+            return;
         }
 
-        inventory.setItem(readySlot, button);
+        while (dirty != 0) {
+            int slot = Long.numberOfTrailingZeros(dirty);
+            dirty &= dirty - 1;
+            inventory.sendSlot(slot, inventory.getViewers());
+        }
     }
 
-    public void handleClick(Player clicker, int slot, Item clickedItem) {
-        if (!clicker.equals(player1) && !clicker.equals(player2)) {
+    /**
+     * Anota en el diario lo que hay ahora en la ventana (el diario es quien sabe qué hay en ella)
+     * Solo escribe en el mapeo de memoria; no guarda jugadores ni fuerza disco en el hilo principal
+     */
+    public void checkpointOffers() {
+        if (!offersChanged || !state.get().isEditable()) {
             return;
         }
+        offersChanged = false;
 
-        if (TradeUtils.isSeparatorSlot(slot)) {
+        OfferSnapshot snapshot = OfferSnapshot.read(inventory, plugin.getSettings().slotLayout(), offers);
+        if (journalEntry == -1 && snapshot.isEmpty()) {
             return;
         }
 
-        if (slot == plugin.getReadyButtonSlot()) {
-            toggleReady(clicker);
-            return;
+        try {
+            journalEntry = plugin.getJournal().prepare(journalEntry, player1.getUniqueId(), player2.getUniqueId(),
+                    snapshot.player1Items(), snapshot.player2Items());
+        } catch (IllegalStateException ignored) {
+            // El diario se desactivó; el trade sigue sin él
+        }
+    }
+
+    /**
+     * Guarda a los dos jugadores al cerrar el trade (la escritura a disco va en otro hilo)
+     * para que el inventario guardado refleje la entrega o la devolución que el diario marca como DONE
+     */
+    private void savePlayers() {
+        if (player1.isOnline()) {
+            player1.save(true);
+        }
+        if (player2.isOnline()) {
+            player2.save(true);
+        }
+    }
+
+    /**
+     * Comprueba si un jugador puede poner o quitar un item en un slot; no cambia nada
+     * @param clicker Jugador
+     * @param slot Slot de la GUI
+     * @param item Item que quedaría en el slot
+     * @return false si la acción debe cancelarse
+     */
+    public boolean canOffer(Player clicker, int slot, Item item) {
+        if (!state.get().isEditable()) {
+            return false;
         }
 
         boolean isPlayer1 = clicker.equals(player1);
-        boolean isLeftSide = TradeUtils.isLeftSide(slot);
-        boolean isRightSide = TradeUtils.isRightSide(slot);
+        if (!isPlayer1 && !clicker.equals(player2)) {
+            return false;
+        }
 
-        if ((isPlayer1 && !isLeftSide) || (!isPlayer1 && !isRightSide)) {
-            clicker.sendMessage(plugin.getMessage("trade-cancelled"));
-            return;
+        TradeSettings settings = plugin.getSettings();
+        if (settings.slotLayout().roleOf(slot) != SlotLayout.offerRoleOf(isPlayer1)) {
+            return false;
         }
 
-        if (clickedItem != null && clickedItem.getId() != 0) {
-            if (!plugin.getItemBlacklist().canTrade(clickedItem, clicker)) {
+        if (item != null && item.getId() != 0) {
+            PlayerPermissions permissions = isPlayer1 ? permissions1 : permissions2;
+            if (!plugin.getItemBlacklist().canTrade(item, permissions)) {
                 clicker.sendMessage(plugin.getMessage("blacklist-item"));
-                if (plugin.areSoundsEnabled()) {
+                if (settings.soundsEnabled()) {
                     TradeUtils.playSound(clicker, Sound.NOTE_BASS);
                 }
-                return;
+                return false;
             }
         }
 
-        if (isPlayer1 && player1Ready) {
-            player1Ready = false;
+        return true;
+    }
+
+    /**
+     * Anota un cambio ya aceptado por canOffer; invalida los "listo" anteriores
+     * @param clicker Jugador
+     * @param slot Slot de la GUI
+     * @param item Item que queda en el slot
+     */
+    public void recordOffer(Player clicker, int slot, Item item) {
+        boolean isPlayer1 = clicker.equals(player1);
+        boolean wasReady1 = isReady(true);
+        boolean wasReady2 = isReady(false);
+
+        // Cualquier cambio sube la versión y deja sin efecto los "listo" anteriores
+        offers.set(isPlayer1, slot, item);
+
+        // La ventana cambia al terminar el evento; se anota en el diario en el siguiente tick
+        if (!offersChanged) {
+            offersChanged = true;
+            plugin.getTradeManager().markDirty(this);
+        }
+
+        if (wasReady1) {
             player1.sendMessage(plugin.getMessage("trade-not-ready"));
             player2.sendMessage(plugin.getMessage("partner-not-ready", "{player}", player1.getName()));
-        } else if (!isPlayer1 && player2Ready) {
-            player2Ready = false;
+        }
+        if (wasReady2) {
             player2.sendMessage(plugin.getMessage("trade-not-ready"));
             player1.sendMessage(plugin.getMessage("partner-not-ready", "{player}", player2.getName()));
         }
-
-        if (isPlayer1) {
-            if (clickedItem == null || clickedItem.getId() == 0) {
-                player1Items.remove(slot);
-            } else {
-                player1Items.put(slot, clickedItem.clone());
-            }
-        } else {
-            if (clickedItem == null || clickedItem.getId() == 0) {
-                player2Items.remove(slot);
-            } else {
-                player2Items.put(slot, clickedItem.clone());
-            }
+        if (wasReady1 || wasReady2) {
+            updateReadyState();
         }
 
         updateReadyButton();
     }
 
-    private void toggleReady(Player player) {
+    private boolean isReady(boolean isPlayer1) {
+        return (isPlayer1 ? player1ReadyVersion : player2ReadyVersion) == offers.getVersion();
+    }
+
+    /**
+     * Pulsación del botón de listo
+     * @param player Jugador que lo pulsa
+     */
+    public void toggleReady(Player player) {
+        if (!state.get().isEditable() || !involves(player)) {
+            return;
+        }
+
         boolean isPlayer1 = player.equals(player1);
+        boolean soundsEnabled = plugin.getSettings().soundsEnabled();
 
         if (isPlayer1) {
-            player1Ready = !player1Ready;
+            boolean ready = !isReady(true);
+            player1ReadyVersion = ready ? offers.getVersion() : -1;
 
-            if (player1Ready) {
+            if (ready) {
                 player.sendMessage(plugin.getMessage("trade-ready"));
                 player2.sendMessage(plugin.getMessage("partner-ready", "{player}", player1.getName()));
-                if (plugin.areSoundsEnabled()) {
+                if (soundsEnabled) {
                     TradeUtils.playSound(player, Sound.RANDOM_LEVELUP);
                 }
             } else {
@@ -214,12 +289,13 @@ public class TradeSession {
                 player2.sendMessage(plugin.getMessage("partner-not-ready", "{player}", player1.getName()));
             }
         } else {
-            player2Ready = !player2Ready;
+            boolean ready = !isReady(false);
+            player2ReadyVersion = ready ? offers.getVersion() : -1;
 
-            if (player2Ready) {
+            if (ready) {
                 player.sendMessage(plugin.getMessage("trade-ready"));
                 player1.sendMessage(plugin.getMessage("partner-ready", "{player}", player2.getName()));
-                if (plugin.areSoundsEnabled()) {
+                if (soundsEnabled) {
                     TradeUtils.playSound(player, Sound.RANDOM_LEVELUP);
                 }
             } else {
@@ -228,76 +304,133 @@ public class TradeSession {
             }
         }
 
+        if (updateReadyState() == TradeState.READY_BOTH) {
+            bothReady();
+        }
         updateReadyButton();
+    }
 
-        if (player1Ready && player2Ready) {
-            bothReady();
-        } else {
-            if (completionTaskId != -1) {
-                plugin.getServer().getScheduler().cancelTask(completionTaskId);
-                completionTaskId = -1;
+    /**
+     * Pasa al estado que corresponde a los jugadores listos
+     * @return Estado nuevo, o el actual si la sesión ya no es editable
+     */
+    private TradeState updateReadyState() {
+        TradeState next = TradeState.ofReadyCount((isReady(true) ? 1 : 0) + (isReady(false) ? 1 : 0));
+        TradeState current;
+        do {
+            current = state.get();
+            if (!current.isEditable()) {
+                return current;
             }
+        } while (!state.compareAndSet(current, next));
+
+        if (next != TradeState.READY_BOTH) {
+            cancelCompletionTask();
+        }
+        return next;
+    }
+
+    private void cancelCompletionTask() {
+        if (completionTimeout != null) {
+            completionTimeout.cancel();
+            completionTimeout = null;
         }
     }
 
     private void bothReady() {
+        TradeSettings settings = plugin.getSettings();
         player1.sendMessage(plugin.getMessage("both-ready"));
         player2.sendMessage(plugin.getMessage("both-ready"));
 
-        if (plugin.areSoundsEnabled()) {
+        if (settings.soundsEnabled()) {
             TradeUtils.playSoundToPlayers(player1, player2, Sound.RANDOM_LEVELUP);
         }
 
-        int delay = plugin.getCompletionDelay();
-        completionTaskId = plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> {
-            completeTrade();
-        }, delay).getTaskId();
+        completionTimeout = plugin.getTimingWheel().schedule(this::completeTrade, settings.completionDelay());
     }
 
     private void completeTrade() {
-        if (completed || cancelled) {
+        completionTimeout = null;
+        // Si alguien dejó de estar listo o se canceló mientras tanto, no se hace nada
+        if (!state.compareAndSet(TradeState.READY_BOTH, TradeState.COMMITTING)) {
             return;
         }
 
         if (!TradeUtils.arePlayersValid(player1, player2)) {
-            cancel();
+            rollback();
+            return;
+        }
+
+        // Lo que hay de verdad en la ventana; el registro de clics solo se contrasta
+        OfferSnapshot snapshot = OfferSnapshot.read(inventory, plugin.getSettings().slotLayout(), offers);
+        if (!snapshot.matchesLedger()) {
+            plugin.getLogger().warning("§cLa ventana del trade entre " + player1.getName() + " y "
+                    + player2.getName() + " no coincide con lo registrado, se cancela.");
+            rollback();
+            return;
+        }
+
+        // A partir de aquí el diario permite rehacer o deshacer el movimiento tras un cierre inesperado
+        TradeJournal journal = plugin.getJournal();
+        try {
+            journalEntry = journal.prepare(journalEntry, player1.getUniqueId(), player2.getUniqueId(),
+                    snapshot.player1Items(), snapshot.player2Items());
+        } catch (IllegalStateException e) {
+            rollback();
             return;
         }
 
-        List<Item> items1 = new ArrayList<>(player1Items.values());
-        List<Item> items2 = new ArrayList<>(player2Items.values());
+        // Los items ofrecidos ya salieron del inventario de cada jugador al ponerlos en la ventana,
+        // así que solo hay que simular la entrega sobre una foto de cada inventario
+        PlacementPlan plan1 = InventorySimulator.snapshot(player1.getInventory()).place(snapshot.player2Items());
 
-        if (!TradeUtils.hasInventorySpace(player1, items2)) {
+        if (!plan1.fits()) {
             player1.sendMessage(plugin.getMessage("inventory-full"));
             player2.sendMessage(plugin.getMessage("partner-inventory-full", "{player}", player1.getName()));
-            cancel();
+            rollback();
             return;
         }
 
-        if (!TradeUtils.hasInventorySpace(player2, items1)) {
+        PlacementPlan plan2 = InventorySimulator.snapshot(player2.getInventory()).place(snapshot.player1Items());
+
+        if (!plan2.fits()) {
             player2.sendMessage(plugin.getMessage("inventory-full"));
             player1.sendMessage(plugin.getMessage("partner-inventory-full", "{player}", player2.getName()));
-            cancel();
+            rollback();
             return;
         }
 
-        for (Item item : items1) {
-            player1.getInventory().removeItem(item);
+        try {
+            journal.apply(journalEntry);
+        } catch (IllegalStateException e) {
+            rollback();
+            return;
         }
-        for (Item item : items2) {
-            player2.getInventory().removeItem(item);
+
+        // Vaciar la ventana antes de entregar para que nada pueda salir dos veces
+        inventory.clearAll();
+
+        // Una sola sincronización de inventario por jugador
+        TradeUtils.deliver(plugin, player1, plan1);
+        TradeUtils.deliver(plugin, player2, plan2);
+
+        // Los items ya están entregados: si el diario falla aquí no se puede deshacer nada
+        try {
+            journal.done(journalEntry);
+        } catch (IllegalStateException ignored) {
         }
+        savePlayers();
+
+        plugin.getHistory().record(TradeRecord.of(true, player1, player2, snapshot.player1Items(), snapshot.player2Items()));
 
-        TradeUtils.giveItemsSafely(player1, items2);
-        TradeUtils.giveItemsSafely(player2, items1);
         player1.sendMessage(plugin.getMessage("trade-completed"));
         player2.sendMessage(plugin.getMessage("trade-completed"));
 
-        if (plugin.areSoundsEnabled()) {
+        if (plugin.getSettings().soundsEnabled()) {
             TradeUtils.playSoundToPlayers(player1, player2, Sound.RANDOM_LEVELUP);
         }
 
-        completed = true;
+        state.set(TradeState.COMPLETED);
 
         player1.removeWindow(inventory);
         player2.removeWindow(inventory);
@@ -305,18 +438,62 @@ public class TradeSession {
         plugin.getTradeManager().removeSession(this);
     }
 
-    public void cancel() {
-        if (completed || cancelled) {
-            return;
+    /**
+     * Cancela la sesión y devuelve los items
+     * @return true si esta llamada la canceló; false si ya había terminado o se está completando
+     */
+    public boolean cancel() {
+        TradeState current;
+        do {
+            current = state.get();
+            if (!current.isEditable()) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, TradeState.CANCELLED));
+
+        finishCancel();
+        return true;
+    }
+
+    /**
+     * Cancela desde dentro del commit cuando no se puede completar
+     */
+    private void rollback() {
+        if (state.compareAndSet(TradeState.COMMITTING, TradeState.CANCELLED)) {
+            finishCancel();
+        }
+    }
+
+    private void finishCancel() {
+        // Se devuelve lo que hay realmente en la ventana
+        OfferSnapshot snapshot = OfferSnapshot.read(inventory, plugin.getSettings().slotLayout(), offers);
+
+        // Un fallo del diario no puede impedir la devolución (queda desactivado y lo siguiente no hace nada)
+        TradeJournal journal = plugin.getJournal();
+        try {
+            if (journalEntry == -1 && !snapshot.isEmpty()) {
+                journalEntry = journal.prepare(-1, player1.getUniqueId(), player2.getUniqueId(),
+                        snapshot.player1Items(), snapshot.player2Items());
+            }
+            journal.rollback(journalEntry);
+        } catch (IllegalStateException ignored) {
         }
 
-        cancelled = true;
+        inventory.clearAll();
+        TradeUtils.giveItemsSafely(plugin, player1, snapshot.player1Items());
+        TradeUtils.giveItemsSafely(plugin, player2, snapshot.player2Items());
 
-        for (Map.Entry<Integer, Item> entry : player1Items.entrySet()) {
-            TradeUtils.giveItemsSafely(player1, List.of(entry.getValue()));
+        try {
+            journal.done(journalEntry);
+        } catch (IllegalStateException ignored) {
+        }
+        if (journalEntry != -1) {
+            savePlayers();
         }
-        for (Map.Entry<Integer, Item> entry : player2Items.entrySet()) {
-            TradeUtils.giveItemsSafely(player2, List.of(entry.getValue()));
+
+        // Los trades cancelados sin items no interesan para moderación
+        if (!snapshot.isEmpty()) {
+            plugin.getHistory().record(TradeRecord.of(false, player1, player2, snapshot.player1Items(), snapshot.player2Items()));
         }
 
         if (player1 != null && player1.isOnline()) {
@@ -328,9 +505,7 @@ public class TradeSession {
             player2.sendMessage(plugin.getMessage("trade-cancelled"));
         }
 
-        if (completionTaskId != -1) {
-            plugin.getServer().getScheduler().cancelTask(completionTaskId);
-        }
+        cancelCompletionTask();
 
         plugin.getTradeManager().removeSession(this);
     }
@@ -347,13 +522,16 @@ public class TradeSession {
     public boolean involves(Player player) {
         return player.equals(player1) || player.equals(player2);
     }
-    public DoubleChestInventory getInventory() {
+    public VirtualChestInventory getInventory() {
         return inventory;
     }
+    public TradeState getState() {
+        return state.get();
+    }
     public boolean isCompleted() {
-        return completed;
+        return state.get() == TradeState.COMPLETED;
     }
     public boolean isCancelled() {
-        return cancelled;
+        return state.get() == TradeState.CANCELLED;
     }
 }
@@ -0,0 +1,43 @@
+package com.morelhaa.trade.session;
+
+/**
+ * Estados de una sesión de trade
+ * OPEN -> READY_ONE -> READY_BOTH -> COMMITTING -> COMPLETED; CANCELLED desde cualquiera salvo COMMITTING
+ */
+public enum TradeState {
+    OPEN,
+    READY_ONE,
+    READY_BOTH,
+    COMMITTING,
+    COMPLETED,
+    CANCELLED;
+
+    /**
+     * @return true si aún se pueden cambiar ofertas y estados de listo
+     */
+    public boolean isEditable() {
+        return this == OPEN || this == READY_ONE || this == READY_BOTH;
+    }
+
+    /**
+     * @return true si la sesión ya terminó
+     */
+    public boolean isFinished() {
+        return this == COMPLETED || this == CANCELLED;
+    }
+
+    /**
+     * @param readyCount Jugadores listos (0, 1 o 2)
+     * @return Estado editable correspondiente
+     */
+    public static TradeState ofReadyCount(int readyCount) {
+        switch (readyCount) {
+            case 0:
+                return OPEN;
+            case 1:
+                return READY_ONE;
+            default:
+                return READY_BOTH;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.morelhaa.trade.utils;
+
+import cn.nukkit.inventory.Inventory;
+import cn.nukkit.item.Item;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copia compacta de un inventario para simular entregas
+ * sin tocar el inventario real ni clonar items por cada consulta
+ */
+public class InventorySimulator {
+
+    private final int size;
+    private final int[] ids;
+    private final int[] metas;
+    private final int[] counts;
+    private final int[] maxStacks;
+    // Item de referencia de cada slot (para comparar NBT y construir el resultado)
+    private final Item[] items;
+    private final boolean[] changed;
+    // Primer slot que podría estar vacío
+    private int emptyCursor;
+    // Slots con pilas sin llenar por tipo (id y meta), así cada item solo mira los de su tipo
+    private final Map<Long, SlotList> partial = new HashMap<>();
+
+    private InventorySimulator(int size) {
+        this.size = size;
+        this.ids = new int[size];
+        this.metas = new int[size];
+        this.counts = new int[size];
+        this.maxStacks = new int[size];
+        this.items = new Item[size];
+        this.changed = new boolean[size];
+    }
+
+    /**
+     * Toma una foto del inventario en una sola lectura
+     * @param inventory Inventario (en jugadores solo cuenta el inventario principal)
+     * @return Simulador listo para usar
+     */
+    public static InventorySimulator snapshot(Inventory inventory) {
+        InventorySimulator simulator = new InventorySimulator(inventory.getSize());
+
+        for (Map.Entry<Integer, Item> entry : inventory.getContents().entrySet()) {
+            int slot = entry.getKey();
+            Item item = entry.getValue();
+            if (slot < 0 || slot >= simulator.size || item == null || item.getId() == 0 || item.getCount() <= 0) {
+                continue;
+            }
+
+            simulator.ids[slot] = item.getId();
+            simulator.metas[slot] = item.getDamage();
+            simulator.counts[slot] = item.getCount();
+            simulator.maxStacks[slot] = item.getMaxStackSize();
+            simulator.items[slot] = item;
+        }
+
+        // Los slots se recorren en orden, así cada lista queda ordenada
+        for (int slot = 0; slot < simulator.size; slot++) {
+            if (simulator.counts[slot] > 0 && simulator.counts[slot] < simulator.maxStacks[slot]) {
+                simulator.partialSlots(simulator.ids[slot], simulator.metas[slot]).add(slot);
+            }
+        }
+
+        return simulator;
+    }
+
+    private static long kind(int id, int meta) {
+        return ((long) id << 32) | (meta & 0xFFFFFFFFL);
+    }
+
+    private SlotList partialSlots(int id, int meta) {
+        return partial.computeIfAbsent(kind(id, meta), key -> new SlotList());
+    }
+
+    private boolean sameKind(int slot, Item item) {
+        return counts[slot] > 0
+                && ids[slot] == item.getId()
+                && metas[slot] == item.getDamage()
+                && items[slot].equals(item, true, true);
+    }
+
+    /**
+     * Simula la entrega de todos los items: primero completa pilas
+     * existentes del mismo tipo y después ocupa slots vacíos
+     * @param incoming Items a entregar
+     * @return Plan con el contenido final de cada slot modificado y lo que no cabe
+     */
+    public PlacementPlan place(List<Item> incoming) {
+        List<Item> overflow = new ArrayList<>();
+
+        for (Item item : incoming) {
+            if (item == null || item.getId() == 0 || item.getCount() <= 0) {
+                continue;
+            }
+
+            int remaining = item.getCount();
+
+            SlotList candidates = partial.get(kind(item.getId(), item.getDamage()));
+            if (candidates != null) {
+                for (int i = candidates.head; i < candidates.size && remaining > 0; i++) {
+                    int slot = candidates.slots[i];
+                    if (counts[slot] < maxStacks[slot] && sameKind(slot, item)) {
+                        int added = Math.min(maxStacks[slot] - counts[slot], remaining);
+                        counts[slot] += added;
+                        remaining -= added;
+                        changed[slot] = true;
+                    }
+                }
+                candidates.dropFull(this);
+            }
+
+            int maxStack = item.getMaxStackSize();
+            while (remaining > 0) {
+                int slot = nextEmpty();
+                if (slot < 0) {
+                    break;
+                }
+
+                int added = Math.min(maxStack, remaining);
+                ids[slot] = item.getId();
+                metas[slot] = item.getDamage();
+                counts[slot] = added;
+                maxStacks[slot] = maxStack;
+                items[slot] = item;
+                changed[slot] = true;
+                remaining -= added;
+
+                if (added < maxStack) {
+                    partialSlots(item.getId(), item.getDamage()).add(slot);
+                }
+            }
+
+            if (remaining > 0) {
+                Item rest = item.clone();
+                rest.setCount(remaining);
+                overflow.add(rest);
+            }
+        }
+
+        return buildPlan(overflow);
+    }
+
+    private int nextEmpty() {
+        while (emptyCursor < size) {
+            if (counts[emptyCursor] == 0) {
+                return emptyCursor++;
+            }
+            emptyCursor++;
+        }
+        return -1;
+    }
+
+    /**
+     * Slots de un tipo con sitio libre; los que se llenan al principio de la lista se saltan
+     */
+    private static final class SlotList {
+        private int[] slots = new int[4];
+        private int size;
+        private int head;
+
+        private void add(int slot) {
+            if (size == slots.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(slots, 0, grown, 0, size);
+                slots = grown;
+            }
+            slots[size++] = slot;
+        }
+
+        private void dropFull(InventorySimulator simulator) {
+            while (head < size && simulator.counts[slots[head]] >= simulator.maxStacks[slots[head]]) {
+                head++;
+            }
+        }
+    }
+
+    private PlacementPlan buildPlan(List<Item> overflow) {
+        int total = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (changed[slot]) {
+                total++;
+            }
+        }
+
+        int[] slots = new int[total];
+        Item[] results = new Item[total];
+        int index = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (!changed[slot]) {
+                continue;
+            }
+
+            Item result;
+            if (counts[slot] == 0) {
+                result = Item.get(0);
+            } else {
+                result = items[slot].clone();
+                result.setCount(counts[slot]);
+            }
+
+            slots[index] = slot;
+            results[index] = result;
+            index++;
+        }
+
+        return new PlacementPlan(slots, results, overflow);
+    }
+}
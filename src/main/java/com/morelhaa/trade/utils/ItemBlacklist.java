@@ -2,47 +2,96 @@ package com.morelhaa.trade.utils;
 
 import cn.nukkit.Player;
 import cn.nukkit.item.Item;
+import cn.nukkit.utils.Config;
 import com.morelhaa.trade.TradePlugin;
-
-import java.util.ArrayList;
+import com.morelhaa.trade.manager.PermissionCache.PlayerPermissions;
+import com.morelhaa.trade.blacklist.BlacklistPersister;
+import com.morelhaa.trade.blacklist.BlacklistProfile;
+import com.morelhaa.trade.blacklist.ItemIdIndex;
+import com.morelhaa.trade.blacklist.BlacklistRuleSet;
+
+import java.io.File;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class ItemBlacklist {
 
     private final TradePlugin plugin;
+    // Entradas en formato "ID:META", solo para guardar y mostrar
     private final Set<String> blacklistedItems;
+    private final ItemIdIndex index;
+    // Reglas por nombre, lore, encantamientos o tags NBT
+    private BlacklistRuleSet rules;
+    private List<BlacklistProfile> profiles;
+    // Secciones de blacklist.yml que no gestiona esta clase, se guardan tal cual
+    private final Map<String, Object> extraSections;
+    private final File file;
+    private final BlacklistPersister persister;
     private boolean enabled;
 
     public ItemBlacklist(TradePlugin plugin) {
         this.plugin = plugin;
-        this.blacklistedItems = new HashSet<>();
+        this.blacklistedItems = new LinkedHashSet<>();
+        this.index = new ItemIdIndex();
+        this.rules = BlacklistRuleSet.EMPTY;
+        this.profiles = Collections.emptyList();
+        this.extraSections = new LinkedHashMap<>();
+        this.file = new File(plugin.getDataFolder(), "blacklist.yml");
+        this.persister = new BlacklistPersister(plugin, file);
         this.enabled = true;
     }
 
     public void loadBlacklist() {
+        // No perder cambios que aún no se han escrito
+        persister.flush();
+
         blacklistedItems.clear();
+        index.clear();
+        extraSections.clear();
+
+        if (!file.exists()) {
+            createBlacklistFile();
+        }
 
-        enabled = plugin.getConfig().getBoolean("blacklist.enabled", true);
+        Config config = new Config(file, Config.YAML);
+        enabled = config.getBoolean("enabled", true);
+
+        for (String key : config.getKeys(false)) {
+            if (!key.equals("enabled") && !key.equals("items")) {
+                extraSections.put(key, config.get(key));
+            }
+        }
 
         if (!enabled) {
             plugin.getLogger().info("§eBlacklist de items desactivada.");
-            return;
         }
 
-        List<String> items = plugin.getConfig().getStringList("blacklist.items");
+        List<String> items = config.getStringList("items");
 
         if (items != null && !items.isEmpty()) {
             for (String itemString : items) {
                 if (itemString != null && !itemString.trim().isEmpty()) {
-                    blacklistedItems.add(itemString.trim());
+                    if (!addEntry(itemString)) {
+                        plugin.getLogger().warning("§cEntrada de blacklist inválida: " + itemString);
+                    }
                 }
             }
             plugin.getLogger().info("§aCargados " + blacklistedItems.size() + " items en la blacklist.");
         } else {
             plugin.getLogger().warning("§cNo se encontraron items en la blacklist.");
         }
+
+        rules = BlacklistRuleSet.compile(config.getList("rules"), plugin.getLogger());
+        if (rules.size() > 0) {
+            plugin.getLogger().info("§aCargadas " + rules.size() + " reglas avanzadas en la blacklist.");
+        }
+
+        profiles = BlacklistProfile.compile(config.getSection("profiles"), plugin.getLogger());
     }
 
     public boolean isBlacklisted(Item item) {
@@ -50,14 +99,46 @@ public class ItemBlacklist {
             return false;
         }
 
-        String itemId = item.getId() + ":0";
-        String itemIdMeta = item.getId() + ":" + item.getDamage(); 
+        if (index.contains(item)) {
+            return true;
+        }
+
+        // Solo se lee el NBT si hay reglas para este ID
+        return rules.matches(item);
+    }
+
+    private boolean addEntry(String itemId) {
+        long key;
+        try {
+            key = ItemIdIndex.parse(itemId);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        if (!blacklistedItems.add(ItemIdIndex.format(key))) {
+            return false;
+        }
+        index.add(key);
+        return true;
+    }
+
+    private boolean removeEntry(String itemId) {
+        long key;
+        try {
+            key = ItemIdIndex.parse(itemId);
+        } catch (NumberFormatException e) {
+            return false;
+        }
 
-        return blacklistedItems.contains(itemId) || blacklistedItems.contains(itemIdMeta);
+        if (!blacklistedItems.remove(ItemIdIndex.format(key))) {
+            return false;
+        }
+        index.remove(key);
+        return true;
     }
 
     public boolean canBypass(Player player) {
-        return player != null && player.hasPermission("trade.bypass.blacklist");
+        return player != null && plugin.getPermissionCache().get(player).canBypassBlacklist();
     }
 
     public boolean canTrade(Item item, Player player) {
@@ -65,11 +146,26 @@ public class ItemBlacklist {
             return true;
         }
 
-        if (!isBlacklisted(item)) {
+        return canTrade(item, plugin.getPermissionCache().get(player));
+    }
+
+    /**
+     * Variante para el clic: los permisos ya vienen resueltos por la sesión
+     * @param item Item a comprobar
+     * @param permissions Permisos del jugador
+     * @return true si puede intercambiarlo
+     */
+    public boolean canTrade(Item item, PlayerPermissions permissions) {
+        if (!enabled || !isBlacklisted(item)) {
             return true;
         }
 
-        return canBypass(player);
+        if (permissions.canBypassBlacklist()) {
+            return true;
+        }
+
+        BlacklistProfile profile = permissions.blacklistProfile();
+        return profile != null && profile.allows(item);
     }
 
     public boolean addToBlacklist(String itemId) {
@@ -77,12 +173,7 @@ public class ItemBlacklist {
             return false;
         }
 
-        String formatted = itemId.trim();
-        if (!formatted.contains(":")) {
-            formatted += ":0";
-        }
-
-        boolean added = blacklistedItems.add(formatted);
+        boolean added = addEntry(itemId);
 
         if (added) {
             saveBlacklist();
@@ -96,12 +187,7 @@ public class ItemBlacklist {
             return false;
         }
 
-        String formatted = itemId.trim();
-        if (!formatted.contains(":")) {
-            formatted += ":0";
-        }
-
-        boolean removed = blacklistedItems.remove(formatted);
+        boolean removed = removeEntry(itemId);
 
         if (removed) {
             saveBlacklist();
@@ -110,10 +196,33 @@ public class ItemBlacklist {
         return removed;
     }
 
+    /**
+     * Crea blacklist.yml, migrando la sección antigua de config.yml si existe
+     */
+    private void createBlacklistFile() {
+        Config config = plugin.getConfig();
+        if (config.exists("blacklist")) {
+            persister.markDirty(
+                    config.getBoolean("blacklist.enabled", true),
+                    config.getStringList("blacklist.items"),
+                    null
+            );
+            persister.flush();
+            plugin.getLogger().info("§aBlacklist migrada de config.yml a blacklist.yml.");
+        } else {
+            plugin.saveResource("blacklist.yml", false);
+        }
+    }
+
     private void saveBlacklist() {
-        List<String> items = new ArrayList<>(blacklistedItems);
-        plugin.getConfig().set("blacklist.items", items);
-        plugin.getConfig().save();
+        persister.markDirty(enabled, blacklistedItems, extraSections);
+    }
+
+    /**
+     * Escribe de inmediato los cambios pendientes (usado al desactivar el plugin)
+     */
+    public void flush() {
+        persister.flush();
     }
 
     public Item findBlacklistedItem(List<Item> items, Player player) {
@@ -136,22 +245,28 @@ public class ItemBlacklist {
         return new HashSet<>(blacklistedItems);
     }
 
+    public List<BlacklistProfile> getProfiles() {
+        return profiles;
+    }
+
     public int getBlacklistSize() {
         return blacklistedItems.size();
     }
-turn true si está activa
+    /**
+     * @return true si está activa
+     */
     public boolean isEnabled() {
         return enabled;
     }
 
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
-        plugin.getConfig().set("blacklist.enabled", enabled);
-        plugin.getConfig().save();
+        saveBlacklist();
     }
 
     public void clearBlacklist() {
         blacklistedItems.clear();
+        index.clear();
         saveBlacklist();
     }
 
@@ -167,6 +282,7 @@ turn true si está activa
         info.append("§6=== Blacklist de Items ===\n");
         info.append("§eEstado: ").append(enabled ? "§aActivada" : "§cDesactivada").append("\n");
         info.append("§eTotal de items: §f").append(blacklistedItems.size()).append("\n");
+        info.append("§eReglas avanzadas: §f").append(rules.size()).append("\n");
 
         if (!blacklistedItems.isEmpty()) {
             info.append("§eItems prohibidos:\n");
@@ -0,0 +1,46 @@
+package com.morelhaa.trade.utils;
+
+import cn.nukkit.item.Item;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Serialización binaria compacta de items (id, meta, cantidad y NBT en bruto)
+ */
+public final class ItemCodec {
+
+    private ItemCodec() {
+    }
+
+    public static void write(DataOutput out, Item item) throws IOException {
+        out.writeInt(item.getId());
+        out.writeInt(item.getDamage());
+        out.writeShort(item.getCount());
+
+        byte[] tag = item.hasCompoundTag() ? item.getCompoundTag() : null;
+        if (tag == null || tag.length == 0) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(tag.length);
+            out.write(tag);
+        }
+    }
+
+    public static Item read(DataInput in) throws IOException {
+        int id = in.readInt();
+        int meta = in.readInt();
+        int count = in.readUnsignedShort();
+        int tagLength = in.readInt();
+
+        if (tagLength < 0) {
+            throw new IOException("Longitud de NBT inválida: " + tagLength);
+        }
+
+        byte[] tag = new byte[tagLength];
+        in.readFully(tag);
+
+        return Item.get(id, meta, count, tag);
+    }
+}
@@ -0,0 +1,157 @@
+package com.morelhaa.trade.utils;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de longs con direccionamiento abierto (sondeo lineal)
+ * Evita el boxing de HashSet<Long> en las comprobaciones frecuentes
+ */
+public class LongHashSet {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean containsEmptyKey;
+
+    public LongHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize * 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmptyKey;
+        }
+
+        int index = hash(key) & mask;
+        long current;
+        while ((current = keys[index]) != EMPTY) {
+            if (current == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmptyKey) {
+                return false;
+            }
+            containsEmptyKey = true;
+            size++;
+            return true;
+        }
+
+        int index = hash(key) & mask;
+        long current;
+        while ((current = keys[index]) != EMPTY) {
+            if (current == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        size++;
+
+        if (size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmptyKey) {
+                return false;
+            }
+            containsEmptyKey = false;
+            size--;
+            return true;
+        }
+
+        int index = hash(key) & mask;
+        long current;
+        while ((current = keys[index]) != EMPTY) {
+            if (current == key) {
+                shiftKeys(index);
+                size--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Compacta el cluster tras un borrado para no necesitar lápidas
+     */
+    private void shiftKeys(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            long current = keys[index];
+            if (current == EMPTY) {
+                keys[gap] = EMPTY;
+                return;
+            }
+
+            int ideal = hash(current) & mask;
+            boolean movable = gap <= index
+                    ? (ideal <= gap || ideal > index)
+                    : (ideal <= gap && ideal > index);
+            if (movable) {
+                keys[gap] = current;
+                gap = index;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        allocate(capacity);
+        for (long key : old) {
+            if (key != EMPTY) {
+                int index = hash(key) & mask;
+                while (keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsEmptyKey = false;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,57 @@
+package com.morelhaa.trade.utils;
+
+import cn.nukkit.inventory.Inventory;
+import cn.nukkit.item.Item;
+
+import java.util.List;
+
+/**
+ * Resultado de simular la entrega de items en un inventario
+ * Contiene el contenido final de cada slot modificado y lo que no cabe
+ */
+public class PlacementPlan {
+
+    private final int[] slots;
+    private final Item[] results;
+    private final List<Item> overflow;
+
+    PlacementPlan(int[] slots, Item[] results, List<Item> overflow) {
+        this.slots = slots;
+        this.results = results;
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return true si todos los items caben
+     */
+    public boolean fits() {
+        return overflow.isEmpty();
+    }
+
+    /**
+     * Escribe el contenido final de cada slot modificado sin enviar paquetes
+     * El llamador debe sincronizar el inventario una sola vez al terminar
+     * @param inventory Inventario sobre el que se hizo la simulación
+     */
+    public void apply(Inventory inventory) {
+        for (int i = 0; i < slots.length; i++) {
+            inventory.setItem(slots[i], results[i], false);
+        }
+    }
+
+    public boolean isEmpty() {
+        return slots.length == 0 && overflow.isEmpty();
+    }
+
+    public int[] getSlots() {
+        return slots;
+    }
+
+    public Item[] getResults() {
+        return results;
+    }
+
+    public List<Item> getOverflow() {
+        return overflow;
+    }
+}
@@ -0,0 +1,64 @@
+package com.morelhaa.trade.utils;
+
+import cn.nukkit.Player;
+import cn.nukkit.level.Sound;
+import cn.nukkit.network.protocol.PlaySoundPacket;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Envía los sonidos del trade solo a quien los tiene que oír
+ * El mismo sonido al mismo jugador se envía una sola vez por tick
+ * Solo se usa desde el hilo principal
+ */
+public final class SoundDispatcher {
+
+    // Sonidos ya enviados en el tick actual
+    private static final Map<UUID, Set<Sound>> sentThisTick = new HashMap<>();
+    private static int currentTick = -1;
+
+    private SoundDispatcher() {
+    }
+
+    /**
+     * @param player Jugador que escuchará el sonido
+     * @param sound Sonido a reproducir
+     * @param broadcast true para que lo oigan también los jugadores cercanos
+     */
+    public static void play(Player player, Sound sound, boolean broadcast) {
+        if (!markSent(player, sound)) {
+            return;
+        }
+
+        if (broadcast) {
+            player.getLevel().addSound(player.getLocation(), sound);
+            return;
+        }
+
+        PlaySoundPacket packet = new PlaySoundPacket();
+        packet.name = sound.getSound();
+        packet.volume = 1;
+        packet.pitch = 1;
+        packet.x = player.getFloorX();
+        packet.y = player.getFloorY();
+        packet.z = player.getFloorZ();
+        player.dataPacket(packet);
+    }
+
+    /**
+     * @return false si ya se le envió este sonido en este tick
+     */
+    private static boolean markSent(Player player, Sound sound) {
+        int tick = player.getServer().getTick();
+        if (tick != currentTick) {
+            currentTick = tick;
+            sentThisTick.clear();
+        }
+
+        return sentThisTick.computeIfAbsent(player.getUniqueId(), key -> EnumSet.noneOf(Sound.class)).add(sound);
+    }
+}
@@ -0,0 +1,182 @@
+package com.morelhaa.trade.utils;
+
+/**
+ * Cubos de tokens por clave de 128 bits (un UUID) con direccionamiento abierto
+ * Se rellenan de forma perezosa al consultarlos: no hay tareas por jugador
+ * Una clave ausente equivale a un cubo lleno, así que los cubos llenos se pueden tirar sin perder nada
+ */
+public class TokenBucketMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keysHi;
+    private long[] keysLo;
+    private double[] tokens;
+    private long[] updated;
+    private boolean[] used;
+    // Ya se avisó de que el cubo está vacío (se limpia al gastar un token)
+    private boolean[] warned;
+    private int mask;
+    private int size;
+
+    private double burst = 1;
+    private double tokensPerNano;
+
+    public TokenBucketMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keysHi = new long[capacity];
+        keysLo = new long[capacity];
+        tokens = new double[capacity];
+        updated = new long[capacity];
+        used = new boolean[capacity];
+        warned = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /**
+     * @param burst Tokens máximos del cubo
+     * @param perMinute Tokens que recupera por minuto
+     */
+    public void configure(int burst, double perMinute) {
+        this.burst = burst;
+        this.tokensPerNano = perMinute / 60_000_000_000.0;
+    }
+
+    private static int hash(long hi, long lo) {
+        long h = (hi ^ Long.rotateLeft(lo, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long hi, long lo) {
+        int index = hash(hi, lo) & mask;
+        while (used[index]) {
+            if (keysHi[index] == hi && keysLo[index] == lo) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private double refill(int index, long now) {
+        return refillOf(tokens[index], updated[index], now);
+    }
+
+    /**
+     * @param now System.nanoTime()
+     * @return Tokens disponibles ahora mismo
+     */
+    public double available(long hi, long lo, long now) {
+        int index = find(hi, lo);
+        return index < 0 ? burst : refill(index, now);
+    }
+
+    /**
+     * Marca el aviso de cubo vacío
+     * @return true solo la primera vez desde el último token gastado
+     */
+    public boolean markWarned(long hi, long lo) {
+        int index = find(hi, lo);
+        if (index < 0 || warned[index]) {
+            return false;
+        }
+        warned[index] = true;
+        return true;
+    }
+
+    /**
+     * Gasta un token (la clave debe tener al menos uno disponible)
+     * @param now System.nanoTime()
+     */
+    public void take(long hi, long lo, long now) {
+        int index = find(hi, lo);
+        if (index >= 0) {
+            tokens[index] = refill(index, now) - 1;
+            updated[index] = now;
+            warned[index] = false;
+            return;
+        }
+
+        if ((size + 1) * 2 > keysHi.length) {
+            compact(now);
+        }
+
+        index = hash(hi, lo) & mask;
+        while (used[index]) {
+            index = (index + 1) & mask;
+        }
+        keysHi[index] = hi;
+        keysLo[index] = lo;
+        tokens[index] = burst - 1;
+        updated[index] = now;
+        used[index] = true;
+        size++;
+    }
+
+    /**
+     * Tira los cubos que ya se han rellenado y solo crece si aun así no hay sitio
+     */
+    private void compact(long now) {
+        long[] oldHi = keysHi;
+        long[] oldLo = keysLo;
+        double[] oldTokens = tokens;
+        long[] oldUpdated = updated;
+        boolean[] oldUsed = used;
+        boolean[] oldWarned = warned;
+
+        int live = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i] && refillOf(oldTokens[i], oldUpdated[i], now) < burst) {
+                live++;
+            }
+        }
+
+        int capacity = oldUsed.length;
+        while ((live + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        // Tras una avalancha se vuelve a un tamaño razonable
+        while (capacity > MIN_CAPACITY && (live + 1) * 8 < capacity) {
+            capacity >>= 1;
+        }
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (!oldUsed[i]) {
+                continue;
+            }
+            double current = refillOf(oldTokens[i], oldUpdated[i], now);
+            if (current >= burst) {
+                continue;
+            }
+
+            int index = hash(oldHi[i], oldLo[i]) & mask;
+            while (used[index]) {
+                index = (index + 1) & mask;
+            }
+            keysHi[index] = oldHi[i];
+            keysLo[index] = oldLo[i];
+            tokens[index] = current;
+            updated[index] = now;
+            used[index] = true;
+            warned[index] = oldWarned[i];
+            size++;
+        }
+    }
+
+    private double refillOf(double tokens, long updated, long now) {
+        return Math.min(burst, tokens + (now - updated) * tokensPerNano);
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -3,6 +3,8 @@ package com.morelhaa.trade.utils;
 import cn.nukkit.Player;
 import cn.nukkit.item.Item;
 import cn.nukkit.level.Sound;
+import com.morelhaa.trade.TradePlugin;
+import com.morelhaa.trade.config.SlotLayout;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -15,6 +17,7 @@ public class TradeUtils {
 
     /**
      * Verifica si un jugador tiene espacio suficiente en su inventario
+     * Tiene en cuenta el espacio que van ocupando los items anteriores
      * @param player Jugador a verificar
      * @param items Items que necesita recibir
      * @return true si tiene espacio suficiente
@@ -24,42 +27,7 @@ public class TradeUtils {
             return true;
         }
 
-        // Contar slots vacíos
-        int emptySlots = 0;
-        for (int i = 0; i < player.getInventory().getSize(); i++) {
-            Item item = player.getInventory().getItem(i);
-            if (item == null || item.getId() == 0) {
-                emptySlots++;
-            }
-        }
-
-        // Contar items que necesitan slots nuevos
-        int requiredSlots = 0;
-        for (Item item : items) {
-            if (item != null && item.getId() != 0) {
-                // Verificar si puede stackearse con items existentes
-                boolean canStack = false;
-                for (int i = 0; i < player.getInventory().getSize(); i++) {
-                    Item existing = player.getInventory().getItem(i);
-                    if (existing != null && existing.getId() == item.getId()
-                            && existing.getDamage() == item.getDamage()
-                            && existing.getCount() < existing.getMaxStackSize()) {
-
-                        int remaining = existing.getMaxStackSize() - existing.getCount();
-                        if (remaining >= item.getCount()) {
-                            canStack = true;
-                            break;
-                        }
-                    }
-                }
-
-                if (!canStack) {
-                    requiredSlots++;
-                }
-            }
-        }
-
-        return emptySlots >= requiredSlots;
+        return InventorySimulator.snapshot(player.getInventory()).place(items).fits();
     }
 
     /**
@@ -81,13 +49,13 @@ public class TradeUtils {
     }
 
     /**
-     * Reproduce un sonido a un jugador
+     * Reproduce un sonido a un jugador (solo a él, salvo que sounds-broadcast esté activo)
      * @param player Jugador que escuchará el sonido
-     * @param sound Sonido a reproducar
+     * @param sound Sonido a reproducir
      */
     public static void playSound(Player player, Sound sound) {
         if (player != null && player.isOnline()) {
-            player.getLevel().addSound(player.getLocation(), sound);
+            SoundDispatcher.play(player, sound, TradePlugin.getInstance().getSettings().soundsBroadcast());
         }
     }
 
@@ -160,26 +128,105 @@ public class TradeUtils {
 
     /**
      * Da items a un jugador de forma segura
-     * Si el inventario está lleno, dropea los items
+     * Si el inventario está lleno o el jugador no está conectado, van a su buzón
+     * @param plugin Plugin (buzón y mensajes)
      * @param player Jugador que recibirá los items
      * @param items Items a dar
      */
-    public static void giveItemsSafely(Player player, List<Item> items) {
+    public static void giveItemsSafely(TradePlugin plugin, Player player, List<Item> items) {
         if (player == null || items == null || items.isEmpty()) {
             return;
         }
 
+        if (!player.isOnline()) {
+            storeOverflow(plugin, player, items);
+            return;
+        }
+
+        deliver(plugin, player, InventorySimulator.snapshot(player.getInventory()).place(items));
+    }
+
+    /**
+     * Aplica un plan de entrega con una única sincronización del inventario
+     * Lo que no cabe va al buzón del jugador
+     * @param plugin Plugin (buzón y mensajes)
+     * @param player Jugador que recibe los items
+     * @param plan Plan calculado sobre su inventario actual
+     */
+    public static void deliver(TradePlugin plugin, Player player, PlacementPlan plan) {
+        if (plan.isEmpty()) {
+            return;
+        }
+
+        if (plan.getSlots().length > 0) {
+            plan.apply(player.getInventory());
+            player.getInventory().sendContents(player);
+        }
+
+        if (!plan.fits()) {
+            storeOverflow(plugin, player, plan.getOverflow());
+        }
+    }
+
+    /**
+     * Guarda en el buzón los items que no se pueden entregar
+     * Si el buzón está desactivado se dropean en el mundo agrupados en pilas
+     * @param plugin Plugin (buzón y mensajes)
+     * @param player Dueño de los items
+     * @param items Items sobrantes
+     */
+    private static void storeOverflow(TradePlugin plugin, Player player, List<Item> items) {
+        if (plugin.getSettings().mailboxEnabled()) {
+            plugin.getMailbox().deposit(player.getUniqueId(), items);
+            if (player.isOnline()) {
+                player.sendMessage(plugin.getMessage("mailbox-stored"));
+            }
+            return;
+        }
+
+        for (Item item : mergeStacks(items)) {
+            player.getLevel().dropItem(player.getLocation(), item);
+        }
+    }
+
+    /**
+     * Junta items del mismo tipo en el menor número de pilas posible
+     * @param items Items sueltos
+     * @return Pilas resultantes
+     */
+    public static List<Item> mergeStacks(List<Item> items) {
+        List<Item> merged = new ArrayList<>();
+        if (items == null) {
+            return merged;
+        }
+
         for (Item item : items) {
-            if (item != null && item.getId() != 0) {
-                // Intentar añadir al inventario
-                if (!player.getInventory().canAddItem(item)) {
-                    // Si no cabe, dropear el item
-                    player.getLevel().dropItem(player.getLocation(), item);
-                } else {
-                    player.getInventory().addItem(item);
+            if (item == null || item.getId() == 0) {
+                continue;
+            }
+
+            int remaining = item.getCount();
+            for (Item stack : merged) {
+                if (remaining == 0) {
+                    break;
                 }
+                if (stack.getCount() < stack.getMaxStackSize() && stack.equals(item, true, true)) {
+                    int added = Math.min(stack.getMaxStackSize() - stack.getCount(), remaining);
+                    stack.setCount(stack.getCount() + added);
+                    remaining -= added;
+                }
+            }
+
+            while (remaining > 0) {
+                Item stack = item.clone();
+                int count = Math.min(item.getMaxStackSize(), remaining);
+                stack.setCount(count);
+                merged.add(stack);
+                remaining -= count;
             }
         }
+
+        return merged;
     }
 
     /**
@@ -198,33 +245,34 @@ public class TradeUtils {
 
     /**
      * Verifica si un slot es un slot de separador
+     * Usa la tabla de slots construida a partir de gui.separator-slots
      * @param slot Número de slot
      * @return true si es un separador
      */
     public static boolean isSeparatorSlot(int slot) {
-        // Columna del medio del cofre doble (slots 4, 13, 22, 31, 40, 49)
-        return slot == 4 || slot == 13 || slot == 22 ||
-                slot == 31 || slot == 40 || slot == 49;
+        return layout().roleOf(slot) == SlotLayout.SEPARATOR;
     }
 
     /**
      * Verifica si un slot pertenece al lado izquierdo
      * @param slot Número de slot
-     * @return true si está en el lado izquierdo
+     * @return true si es un slot de oferta del lado izquierdo
      */
     public static boolean isLeftSide(int slot) {
-        int column = slot % 9;
-        return column < 4;
+        return layout().roleOf(slot) == SlotLayout.LEFT_OFFER;
     }
 
     /**
      * Verifica si un slot pertenece al lado derecho
      * @param slot Número de slot
-     * @return true si está en el lado derecho
+     * @return true si es un slot de oferta del lado derecho
      */
     public static boolean isRightSide(int slot) {
-        int column = slot % 9;
-        return column > 4;
+        return layout().roleOf(slot) == SlotLayout.RIGHT_OFFER;
+    }
+
+    private static SlotLayout layout() {
+        return TradePlugin.getInstance().getSettings().slotLayout();
     }
 
     /**